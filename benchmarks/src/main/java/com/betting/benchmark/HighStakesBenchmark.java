@@ -0,0 +1,63 @@
+package com.betting.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.betting.stake.StakeManager;
+
+/**
+ * Reading the top 20 of a bet offer with 1 to 20 entries: cached bytes, String, and a
+ * read right after a stake changed the top 20 (re-render).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HighStakesBenchmark {
+
+    private static final int BET_OFFER = 42;
+
+    @Param({ "1", "5", "20" })
+    int entries;
+
+    private final StakeManager stakeManager = StakeManager.getInstance();
+
+    private int rising = 1_000_000;
+
+    @Setup
+    public void setUp() {
+        for (int customerId = 0; customerId < entries; customerId++) {
+            stakeManager.recordStake(BET_OFFER, customerId, 1000 + customerId);
+        }
+    }
+
+    @Benchmark
+    public byte[] getHighStakesBytes() {
+        return stakeManager.getHighStakesBytes(BET_OFFER);
+    }
+
+    @Benchmark
+    public String getHighStakes() {
+        return stakeManager.getHighStakes(BET_OFFER);
+    }
+
+    @Benchmark
+    public byte[] getHighStakesAfterChange() {
+        // the max stake of customer 0 keeps rising, so every read re-renders
+        stakeManager.recordStake(BET_OFFER, 0, rising++);
+        return stakeManager.getHighStakesBytes(BET_OFFER);
+    }
+}
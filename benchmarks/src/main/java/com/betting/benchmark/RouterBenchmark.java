@@ -0,0 +1,69 @@
+package com.betting.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.betting.Router;
+
+/**
+ * Request path routing: Router on a String (jdk server) and on a direct buffer (nio
+ * server), against the matches() + split() + parseInt it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    private static final String[] PATHS = { "/1234567/session", "/979760/stake", "/979760/highstakes", "/x/y" };
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+
+    private final int[] starts = new int[PATHS.length];
+    private final int[] ends = new int[PATHS.length];
+
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < PATHS.length; i++) {
+            starts[i] = buffer.position();
+            buffer.put(PATHS[i].getBytes(StandardCharsets.US_ASCII));
+            ends[i] = buffer.position();
+        }
+    }
+
+    @Benchmark
+    public long routeString() {
+        return Router.parse(PATHS[next++ & 3]);
+    }
+
+    @Benchmark
+    public long routeBuffer() {
+        int i = next++ & 3;
+        return Router.parse(buffer, starts[i], ends[i]);
+    }
+
+    @Benchmark
+    public int regexAndSplit() {
+        String path = PATHS[next++ & 3];
+        if (path.matches("/\\d+/session") || path.matches("/\\d+/stake") || path.matches("/\\d+/highstakes")) {
+            return Integer.parseInt(path.split("/")[1]);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,59 @@
+package com.betting.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.betting.session.Session;
+import com.betting.session.SessionStore;
+
+/**
+ * Session lookups with 10k to 1M live sessions: by customer (getOrCreateSession of an
+ * existing customer) and by key (getSession), with 4 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(4)
+public class SessionStoreBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    int sessions;
+
+    private final SessionStore sessionStore = SessionStore.getInstance();
+
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        keys = new String[sessions];
+        for (int customerId = 0; customerId < sessions; customerId++) {
+            keys[customerId] = sessionStore.getOrCreateSession(customerId).getKey();
+        }
+    }
+
+    @Benchmark
+    public Session getOrCreateSessionExisting() {
+        return sessionStore.getOrCreateSession(ThreadLocalRandom.current().nextInt(sessions));
+    }
+
+    @Benchmark
+    public Session getSession() {
+        return sessionStore.getSession(keys[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.betting.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.betting.Application;
+import com.betting.stake.StakeManager;
+
+/**
+ * Cost of the history storages: appending a stake, and visiting the 10000 stakes of a bet
+ * offer in order (snapshots, replication copies). StakeHistoryFootprint reports their size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class StakeHistoryBenchmark {
+
+    private static final int READ_OFFER = 1;
+
+    private static final int WRITE_OFFER = 2;
+
+    private static final int STAKES = 10_000;
+
+    @Param({ "heap", "compact" })
+    String storage;
+
+    private final StakeManager stakeManager = StakeManager.getInstance();
+
+    private long timestamp = 1_700_000_000_000L;
+
+    @Setup
+    public void setup() {
+        Application.STAKE_HISTORY_COMPACT = storage.equals("compact");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < STAKES; i++) {
+            timestamp += random.nextInt(50);
+            stakeManager.applyReplicated(READ_OFFER, random.nextInt(100_000), 1 + random.nextInt(1000), timestamp);
+        }
+    }
+
+    @Benchmark
+    public void append() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        timestamp += random.nextInt(50);
+        stakeManager.applyReplicated(WRITE_OFFER, random.nextInt(100_000), 1 + random.nextInt(1000), timestamp);
+    }
+
+    @Benchmark
+    public void forEachStake(Blackhole blackhole) {
+        stakeManager.forEachStake(READ_OFFER, (customerId, stake, timestamp) -> blackhole.consume(stake));
+    }
+}
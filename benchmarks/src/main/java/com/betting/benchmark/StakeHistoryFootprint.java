@@ -0,0 +1,62 @@
+package com.betting.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+import com.betting.Application;
+import com.betting.stake.StakeManager;
+
+/**
+ * Heap retained per stake by the heap and compact history storages. Not a JMH benchmark,
+ * JMH reports time and allocation, this reports what stays on the heap after a GC:
+ * java -cp target/benchmarks.jar com.betting.benchmark.StakeHistoryFootprint [offers] [stakes]
+ *
+ * Stakes are the usual amounts of a betting slip from 100k customers, spread over the
+ * offers with 0 to 50 ms between two stakes. The total includes the leaderboards, the
+ * history alone is the growth over the last 4/5 of the stakes, once every top 20 is full.
+ */
+public class StakeHistoryFootprint {
+
+    private static final int[] AMOUNTS = { 1, 2, 5, 10, 10, 20, 20, 25, 50, 50, 100, 100, 200, 500, 1000 };
+
+    private static final int CUSTOMERS = 100_000;
+
+    public static void main(String[] args) {
+        int offers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int stakes = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        StakeManager stakeManager = StakeManager.getInstance();
+
+        System.out.printf("%d stakes on %d bet offers%n", stakes, offers);
+        for (String storage : new String[] { "heap", "compact" }) {
+            Application.STAKE_HISTORY_COMPACT = storage.equals("compact");
+            stakeManager.clear();
+            long before = usedAfterGc();
+
+            Random random = new Random(42);
+            long timestamp = 1_700_000_000_000L;
+            long filled = 0;
+            for (int i = 0; i < stakes; i++) {
+                if (i == stakes / 5) {
+                    filled = usedAfterGc();
+                }
+                timestamp += random.nextInt(50);
+                stakeManager.applyReplicated(random.nextInt(offers), random.nextInt(CUSTOMERS),
+                        AMOUNTS[random.nextInt(AMOUNTS.length)], timestamp);
+            }
+
+            long after = usedAfterGc();
+            System.out.printf("%-8s total %,14d bytes %6.2f bytes/stake, history %6.2f bytes/stake%n", storage,
+                    after - before, (double) (after - before) / stakes,
+                    (double) (after - filled) / (stakes - stakes / 5));
+        }
+    }
+
+    private static long usedAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,52 @@
+package com.betting.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.betting.stake.StakeManager;
+
+/**
+ * StakeManager.recordStake with the single writer ingest shards (-DSTAKE_INGEST_SHARDS),
+ * 16 writers on one hot bet offer or spread over many. Compare with
+ * StakeManagerBenchmark, where the writers apply the stakes themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class StakeIngestBenchmark {
+
+    // 1: every thread writes the same bet offer
+    @Param({ "1", "1000" })
+    int offers;
+
+    private final StakeManager stakeManager = StakeManager.getInstance();
+
+    @Setup
+    public void setup() {
+        // one JVM per fork, so the shards are started once
+        stakeManager.startIngest(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void recordStakeIngest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        stakeManager.recordStake(random.nextInt(offers), random.nextInt(10_000), random.nextInt(1_000_000));
+    }
+}
@@ -0,0 +1,69 @@
+package com.betting.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.betting.replication.ChangeStream;
+import com.betting.stake.StakeManager;
+
+/**
+ * StakeManager.recordStake, alone and with 4 threads on one hot bet offer or spread
+ * over many, on a replication leader or not. The history is kept forever, so the heap
+ * grows for the whole run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class StakeManagerBenchmark {
+
+    // 1: every thread writes the same bet offer
+    @Param({ "1", "1000" })
+    int offers;
+
+    // every stake is also published to a change stream
+    @Param({ "false", "true" })
+    boolean leader;
+
+    private final StakeManager stakeManager = StakeManager.getInstance();
+
+    @Setup
+    public void setUp() {
+        // one JVM per fork, so the listener is set once
+        if (leader) {
+            stakeManager.setChangeListener(new ChangeStream());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordStake() {
+        record();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordStakeContended() {
+        record();
+    }
+
+    private void record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        stakeManager.recordStake(random.nextInt(offers), random.nextInt(10_000), random.nextInt(1_000_000));
+    }
+}
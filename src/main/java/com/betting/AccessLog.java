@@ -0,0 +1,28 @@
+package com.betting;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sampled access log on the "access" logger: one request out of ACCESS_LOG_SAMPLE_RATE
+ * is logged. Callers check sampled() first, so a request that is not logged costs one
+ * random number and builds no message, no string and no boxed argument.
+ */
+public final class AccessLog {
+
+    private static Logger logger = LoggerFactory.getLogger("access");
+
+    private AccessLog() {
+    }
+
+    public static boolean sampled() {
+        int rate = Application.ACCESS_LOG_SAMPLE_RATE;
+        return rate > 0 && logger.isInfoEnabled() && (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+
+    public static void log(String method, String path, int status) {
+        logger.info("{} {} {}", method, path, status);
+    }
+}
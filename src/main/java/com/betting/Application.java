@@ -2,20 +2,36 @@ package com.betting;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.betting.metrics.Metrics;
+import com.betting.metrics.MetricsServer;
+import com.betting.nio.NioHttpServer;
+import com.betting.replication.ChangeStream;
+import com.betting.replication.ReplicaClient;
+import com.betting.replication.ReplicationServer;
 import com.betting.session.SessionHandler;
 import com.betting.session.SessionManager;
+import com.betting.stake.BatchStakeHandler;
 import com.betting.stake.HighStakesHandler;
+import com.betting.stake.HighStakesStreamHandler;
+import com.betting.stake.HighStakesSubscriptions;
 import com.betting.stake.StakeHandler;
 import com.betting.stake.StakeManager;
+import com.betting.stake.StakePersistence;
+import com.betting.systemmanager.ConcurrencyLimiter;
+import com.betting.systemmanager.GcMonitor;
 import com.betting.systemmanager.SystemMonitor;
 import com.sun.net.httpserver.HttpServer;
 
@@ -23,24 +39,152 @@ public class Application {
 
     private static Logger logger = LoggerFactory.getLogger(Application.class);
 
-    public static final int SERVER_PORT = 8001;
+    public static int SERVER_PORT = 8001;//default value
 
     public static int SESSION_TIMEOUT_MINUTES = 10;//default value 
 
-    public static final AtomicBoolean systemOverloaded = new AtomicBoolean(false);
+    // keep the stake history off the java heap, -DSTAKE_HISTORY_STORAGE=offheap
+    public static boolean STAKE_HISTORY_OFF_HEAP = false;
+
+    // keep the stake history varint encoded in byte blocks, -DSTAKE_HISTORY_STORAGE=compact
+    public static boolean STAKE_HISTORY_COMPACT = false;
+
+    // journal and snapshot the stakes in this directory, -DDATA_DIR=/data; in memory only if not set
+    public static String DATA_DIR = null;
+
+    public static int SNAPSHOT_INTERVAL_MINUTES = 10;//default value
+
+    // serve HTTP with the nio event loops instead of com.sun.net.httpserver, -DHTTP_SERVER=nio
+    public static boolean NIO_HTTP_SERVER = false;
+
+    // log one request out of ACCESS_LOG_SAMPLE_RATE on the "access" logger, 0 to disable
+    public static int ACCESS_LOG_SAMPLE_RATE = 100;//default value
+
+    // Prometheus metrics on http://127.0.0.1:METRICS_PORT/metrics, 0 to disable
+    public static int METRICS_PORT = 8002;//default value
+
+    public static int NIO_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();//default value
+
+    // -DSESSION_MODE=token: self validating HMAC session keys instead of the session store
+    public static boolean SESSION_TOKENS = false;
+
+    // key of the session tokens, shared by all instances accepting the same tokens
+    public static byte[] SESSION_TOKEN_SECRET = null;
+
+    // host:port of every node, the same list on all nodes; empty for a single node
+    public static List<String> CLUSTER_NODES = List.of();
+
+    // host:port of this node in CLUSTER_NODES
+    public static String CLUSTER_SELF = null;
+
+    // key of the requests forwarded between nodes, shared by all nodes
+    public static byte[] CLUSTER_SECRET = null;
+
+    // apply stakes on single writer shards hashed by bet offer, 0 to apply on the request thread
+    public static int STAKE_INGEST_SHARDS = 0;//default value
+
+    // leader: port the followers replicate from, 0 to disable
+    public static int REPLICATION_PORT = 0;//default value
+
+    // leader: interface of the REPLICATION_PORT
+    public static String REPLICATION_BIND = "127.0.0.1";//default value
+
+    // shared by the leader and its followers, they must prove they know it
+    public static byte[] REPLICATION_SECRET = null;
+
+    // follower: host:port of the REPLICATION_PORT of the leader
+    public static String REPLICA_OF = null;
+
+    // follower: answer reads only while at most this far behind the leader
+    public static long REPLICA_MAX_STALENESS_MS = 5000;//default value
+
+    // evict the bet offers without stakes for a while to this directory, in memory only if not set
+    public static String COLD_STORAGE_DIR = null;
+
+    public static int COLD_AFTER_SECONDS = 1800;//default value
+
+    // idle bet offers kept in memory because they are read
+    public static int COLD_CACHE_OFFERS = 10000;//default value
 
     public static void main(String[] args) throws IOException {
 
         //init the system monitor for the purpose of Rate Limiting
+        GcMonitor.getInstance().start();
         ScheduledExecutorService monitorExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
         monitorExecutor.scheduleAtFixedRate(new SystemMonitor(), 0, 2, TimeUnit.SECONDS);
         
         //parse arguments which can be set by for example: -DSESSION_TIMEOUT_MINUTES=10
         parseArguments(args);
 
+        // recover the stakes before accepting any request
+        StakePersistence persistence = null;
+        if (DATA_DIR != null) {
+            persistence = new StakePersistence(Path.of(DATA_DIR), SNAPSHOT_INTERVAL_MINUTES, StakeManager.getInstance());
+            persistence.start();
+        }
+
+        // after the recovery, which loads every offer into memory
+        if (COLD_STORAGE_DIR != null) {
+            StakeManager.getInstance().enableColdStorage(Path.of(COLD_STORAGE_DIR), COLD_AFTER_SECONDS * 1000L,
+                    COLD_CACHE_OFFERS);
+            logger.info("Bet offers without stakes for {} s evicted to {}, {} read ones cached", COLD_AFTER_SECONDS,
+                    COLD_STORAGE_DIR, COLD_CACHE_OFFERS);
+        }
+
+        if (STAKE_INGEST_SHARDS > 0) {
+            StakeManager.getInstance().startIngest(STAKE_INGEST_SHARDS);
+            logger.info("Stakes applied by {} ingest shards", STAKE_INGEST_SHARDS);
+        }
+
+        if (!CLUSTER_NODES.isEmpty()) {
+            logger.info("Cluster node {} of {}, owning its range of bet offers", CLUSTER_SELF, CLUSTER_NODES);
+        }
+
+        // after the recovery, followers get the recovered stakes in their copy
+        ReplicationServer replicationServer = null;
+        if (REPLICATION_PORT > 0) {
+            ChangeStream changes = new ChangeStream();
+            StakeManager.getInstance().setChangeListener(changes);
+            replicationServer = new ReplicationServer(REPLICATION_BIND, REPLICATION_PORT, REPLICATION_SECRET, changes,
+                    StakeManager.getInstance());
+            replicationServer.start();
+            logger.info("Replication leader at {}:{}", REPLICATION_BIND, REPLICATION_PORT);
+        }
+        if (REPLICA_OF != null) {
+            new ReplicaClient(REPLICA_OF, REPLICATION_SECRET, StakeManager.getInstance()).start();
+            logger.info("Read replica of {}, at most {} ms stale", REPLICA_OF, REPLICA_MAX_STALENESS_MS);
+        }
+
         // vritual thread pool for performance
         ExecutorService threadPool = Executors.newVirtualThreadPerTaskExecutor();
 
+        StakePersistence persistenceToClose = persistence;
+        ReplicationServer replicationToStop = replicationServer;
+
+        if (METRICS_PORT > 0) {
+            new MetricsServer(METRICS_PORT, Metrics.getInstance()).start();
+            logger.info("Metrics at http://127.0.0.1:{}/metrics", METRICS_PORT);
+        }
+
+        if (NIO_HTTP_SERVER) {
+            NioHttpServer nioServer = new NioHttpServer(SERVER_PORT, NIO_EVENT_LOOPS, threadPool);
+            nioServer.start();
+
+            logger.info("NIO server started at port {} with {} event loops", SERVER_PORT, NIO_EVENT_LOOPS);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                nioServer.stop();
+                if (replicationToStop != null) {
+                    replicationToStop.stop();
+                }
+                shutdownThreadPool(threadPool);
+                if (persistenceToClose != null) {
+                    persistenceToClose.close();
+                }
+            }));
+            return;
+        }
+
         HttpServer server = HttpServer.create(new InetSocketAddress(SERVER_PORT), 0);
 
         // hand context
@@ -54,47 +198,88 @@ public class Application {
         // graceful shutdown
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             shutdownServerAndThreadPool(server, threadPool);
+            if (replicationToStop != null) {
+                replicationToStop.stop();
+            }
+            if (persistenceToClose != null) {
+                persistenceToClose.close();
+            }
         }));
     }
 
     private static void createContext(HttpServer server) {
 
+        // long-lived handlers, the router hands them the id parsed from the path
+        SessionHandler sessionHandler = new SessionHandler();
+        StakeHandler stakeHandler = new StakeHandler(SessionManager.getInstance(), StakeManager.getInstance());
+        HighStakesHandler highStakesHandler = new HighStakesHandler(StakeManager.getInstance());
+        BatchStakeHandler batchStakeHandler = new BatchStakeHandler(SessionManager.getInstance(), StakeManager.getInstance());
+        HighStakesStreamHandler streamHandler = new HighStakesStreamHandler(HighStakesSubscriptions.getInstance());
+
+        Metrics metrics = Metrics.getInstance();
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance();
+
         server.createContext("/", exchange -> {
 
-            if (systemOverloaded.get()) {// system overloaded. limite access
-                logger.warn("System overloaded, please try later!");
+            long start = System.nanoTime();
+            String pathString = exchange.getRequestURI().getRawPath();
+            String method = exchange.getRequestMethod();
+            long parsed = Router.parse(pathString);
+            int route = Router.route(parsed);
+
+            boolean limited = ConcurrencyLimiter.isLimited(route);
+            if (limited && !limiter.tryAcquire(ConcurrencyLimiter.priorityOf(route))) {// over the concurrency limit
+                // SystemMonitor logs the limit, nothing per rejected request
+                if (logger.isDebugEnabled()) {
+                    logger.debug("System overloaded, please try later!");
+                }
                 String response = "Please try later!";
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(limiter.retryAfterSeconds()));
                 exchange.sendResponseHeaders(503, response.getBytes().length);//503 busy
                 exchange.getResponseBody().write(response.getBytes());
                 exchange.close();
+                metrics.recordRequest(route, 503, System.nanoTime() - start);
                 return;
             }
             
             try {
-                
-                String pathString = exchange.getRequestURI().getPath();
-                String method = exchange.getRequestMethod();
     
-                if (pathString.matches("/\\d+/session") && method.equals("GET")) {
-                    logger.info("handler for get session!");
-                     new SessionHandler().handle(exchange);
+                if (route == Router.SESSION && method.equals("GET")) {
+                    sessionHandler.handle(exchange, Router.id(parsed));
+    
+                } else if (route == Router.STAKE && method.equals("POST")) {
+                    stakeHandler.handle(exchange, Router.id(parsed));
     
-                } else if (pathString.matches("/\\d+/stake") && method.equals("POST")) {
-                    logger.info("handler for create stake!");
-                    new StakeHandler(SessionManager.getInstance(), StakeManager.getInstance()).handle(exchange);
+                } else if (route == Router.HIGH_STAKES && method.equals("GET")) {
+                    highStakesHandler.handle(exchange, Router.id(parsed));
     
-                } else if (pathString.matches("/\\d+/highstakes") && method.equals("GET")) {
-                    logger.info("handler for get hight stake!");
-                    new HighStakesHandler(StakeManager.getInstance()).handle(exchange);
+                } else if (route == Router.BATCH_STAKES && method.equals("POST")) {
+                    batchStakeHandler.handle(exchange);
+
+                } else if (route == Router.HIGH_STAKES_STREAM && method.equals("GET")) {
+                    streamHandler.handle(exchange, Router.id(parsed));
+    
+                } else if (route == Router.BAD_ID) {
+                    exchange.sendResponseHeaders(400, 0); // id out of range
     
                 } else {
-                    logger.error("{} {} not found!", method, pathString);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("{} {} not found!", method, pathString);
+                    }
                     exchange.sendResponseHeaders(404, 0); // not found
                 }
             } catch (Exception e) {
                 logger.error("Error:", e);
             }finally{
                 exchange.close();
+                long duration = System.nanoTime() - start;
+                if (limited) {
+                    limiter.release(duration);
+                }
+                metrics.recordRequest(route, exchange.getResponseCode(), duration);
+                if (AccessLog.sampled()) {
+                    AccessLog.log(method, pathString, exchange.getResponseCode());
+                }
             }   
         });
     }
@@ -108,6 +293,11 @@ public class Application {
     private static void shutdownServerAndThreadPool(HttpServer server, ExecutorService threadPool) {
         logger.info("Shutting down server...");
         server.stop(10);
+        shutdownThreadPool(threadPool);
+    }
+
+    private static void shutdownThreadPool(ExecutorService threadPool) {
+        threadPool.shutdown();
         try {
             if (!threadPool.awaitTermination(10, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
@@ -120,10 +310,26 @@ public class Application {
     }
 
     /**
-     * Currently only support SESSION_TIMEOUT_MINUTES, can be extended to support more
+     * Currently support SERVER_PORT, SESSION_TIMEOUT_MINUTES, STAKE_HISTORY_STORAGE, DATA_DIR, SNAPSHOT_INTERVAL_MINUTES,
+     * HTTP_SERVER, NIO_EVENT_LOOPS, ACCESS_LOG_SAMPLE_RATE, METRICS_PORT, STAKE_INGEST_SHARDS,
+     * SESSION_MODE, SESSION_TOKEN_SECRET, CLUSTER_NODES, CLUSTER_SELF, CLUSTER_SECRET, REPLICATION_PORT, REPLICATION_BIND,
+     * REPLICATION_SECRET, REPLICA_OF,
+     * REPLICA_MAX_STALENESS_MS, COLD_STORAGE_DIR, COLD_AFTER_SECONDS and COLD_CACHE_OFFERS,
+     * can be extended to support more
      * @param args
      */
     private static void parseArguments(String[] args) {
+        String serverPortStr = System.getProperty("SERVER_PORT");
+
+        if (serverPortStr != null) {
+            try {
+                SERVER_PORT = Integer.parseInt(serverPortStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for SERVER_PORT: " + serverPortStr);
+                System.exit(1);
+            }
+        }
+
         String sessionTimeoutStr = System.getProperty("SESSION_TIMEOUT_MINUTES");
 
         if (sessionTimeoutStr != null) {
@@ -135,5 +341,235 @@ public class Application {
             }
         }
 
+        String historyStorage = System.getProperty("STAKE_HISTORY_STORAGE");
+
+        if (historyStorage != null) {
+            switch (historyStorage) {
+                case "heap" -> STAKE_HISTORY_OFF_HEAP = false;
+                case "offheap" -> STAKE_HISTORY_OFF_HEAP = true;
+                case "compact" -> STAKE_HISTORY_COMPACT = true;
+                default -> {
+                    System.err.println("Invalid argument for STAKE_HISTORY_STORAGE: " + historyStorage);
+                    System.exit(1);
+                }
+            }
+        }
+
+        DATA_DIR = System.getProperty("DATA_DIR");
+
+        String snapshotIntervalStr = System.getProperty("SNAPSHOT_INTERVAL_MINUTES");
+
+        if (snapshotIntervalStr != null) {
+            try {
+                SNAPSHOT_INTERVAL_MINUTES = Integer.parseInt(snapshotIntervalStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for SNAPSHOT_INTERVAL_MINUTES: " + snapshotIntervalStr);
+                System.exit(1);
+            }
+        }
+
+        String httpServer = System.getProperty("HTTP_SERVER");
+
+        if (httpServer != null) {
+            switch (httpServer) {
+                case "jdk" -> NIO_HTTP_SERVER = false;
+                case "nio" -> NIO_HTTP_SERVER = true;
+                default -> {
+                    System.err.println("Invalid argument for HTTP_SERVER: " + httpServer);
+                    System.exit(1);
+                }
+            }
+        }
+
+        String eventLoopsStr = System.getProperty("NIO_EVENT_LOOPS");
+
+        if (eventLoopsStr != null) {
+            try {
+                NIO_EVENT_LOOPS = Integer.parseInt(eventLoopsStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for NIO_EVENT_LOOPS: " + eventLoopsStr);
+                System.exit(1);
+            }
+        }
+
+        String sampleRateStr = System.getProperty("ACCESS_LOG_SAMPLE_RATE");
+
+        if (sampleRateStr != null) {
+            try {
+                ACCESS_LOG_SAMPLE_RATE = Integer.parseInt(sampleRateStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for ACCESS_LOG_SAMPLE_RATE: " + sampleRateStr);
+                System.exit(1);
+            }
+        }
+
+        String metricsPortStr = System.getProperty("METRICS_PORT");
+
+        if (metricsPortStr != null) {
+            try {
+                METRICS_PORT = Integer.parseInt(metricsPortStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for METRICS_PORT: " + metricsPortStr);
+                System.exit(1);
+            }
+        }
+
+        String ingestShardsStr = System.getProperty("STAKE_INGEST_SHARDS");
+
+        if (ingestShardsStr != null) {
+            try {
+                STAKE_INGEST_SHARDS = Integer.parseInt(ingestShardsStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for STAKE_INGEST_SHARDS: " + ingestShardsStr);
+                System.exit(1);
+            }
+        }
+
+        String sessionMode = System.getProperty("SESSION_MODE");
+
+        if (sessionMode != null) {
+            switch (sessionMode) {
+                case "store" -> SESSION_TOKENS = false;
+                case "token" -> SESSION_TOKENS = true;
+                default -> {
+                    System.err.println("Invalid argument for SESSION_MODE: " + sessionMode);
+                    System.exit(1);
+                }
+            }
+        }
+
+        String tokenSecret = System.getProperty("SESSION_TOKEN_SECRET");
+
+        if (tokenSecret != null) {
+            if (tokenSecret.length() < 16) {
+                System.err.println("Invalid argument for SESSION_TOKEN_SECRET: at least 16 characters");
+                System.exit(1);
+            }
+            SESSION_TOKEN_SECRET = tokenSecret.getBytes(StandardCharsets.UTF_8);
+        } else if (SESSION_TOKENS) {
+            // only this instance can validate its tokens, and not after a restart
+            SESSION_TOKEN_SECRET = new byte[32];
+            new SecureRandom().nextBytes(SESSION_TOKEN_SECRET);
+            logger.warn("SESSION_TOKEN_SECRET not set, using a random secret");
+        }
+
+        String clusterNodes = System.getProperty("CLUSTER_NODES");
+
+        if (clusterNodes != null && !clusterNodes.isBlank()) {
+            CLUSTER_NODES = Arrays.stream(clusterNodes.split(",")).map(String::trim).toList();
+            CLUSTER_SELF = System.getProperty("CLUSTER_SELF");
+            if (CLUSTER_SELF == null || !CLUSTER_NODES.contains(CLUSTER_SELF)) {
+                System.err.println("Invalid argument for CLUSTER_SELF: " + CLUSTER_SELF + ", must be one of CLUSTER_NODES");
+                System.exit(1);
+            }
+            // the owner of a bet offer must be able to validate sessions issued by any node
+            if (!SESSION_TOKENS || tokenSecret == null) {
+                System.err.println("Invalid argument for CLUSTER_NODES: requires SESSION_MODE=token and SESSION_TOKEN_SECRET");
+                System.exit(1);
+            }
+            // a key per purpose, a signed forwarded request must not be a valid session token input
+            String clusterSecret = System.getProperty("CLUSTER_SECRET");
+            if (clusterSecret == null || clusterSecret.length() < 16 || clusterSecret.equals(tokenSecret)) {
+                System.err.println("Invalid argument for CLUSTER_SECRET: at least 16 characters, other than SESSION_TOKEN_SECRET");
+                System.exit(1);
+            }
+            CLUSTER_SECRET = clusterSecret.getBytes(StandardCharsets.UTF_8);
+        }
+
+        String replicationPortStr = System.getProperty("REPLICATION_PORT");
+
+        if (replicationPortStr != null) {
+            try {
+                REPLICATION_PORT = Integer.parseInt(replicationPortStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for REPLICATION_PORT: " + replicationPortStr);
+                System.exit(1);
+            }
+        }
+
+        String replicaOf = System.getProperty("REPLICA_OF");
+
+        if (replicaOf != null && !replicaOf.isBlank()) {
+            int colon = replicaOf.lastIndexOf(':');
+            try {
+                if (colon <= 0 || Integer.parseInt(replicaOf.substring(colon + 1)) <= 0) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for REPLICA_OF: " + replicaOf + ", must be host:port");
+                System.exit(1);
+            }
+            // a follower holds a copy of the leader, it neither persists, partitions nor leads
+            if (DATA_DIR != null || !CLUSTER_NODES.isEmpty() || REPLICATION_PORT > 0) {
+                System.err.println("Invalid argument for REPLICA_OF: not with DATA_DIR, CLUSTER_NODES or REPLICATION_PORT");
+                System.exit(1);
+            }
+            REPLICA_OF = replicaOf.trim();
+        }
+
+        String replicationBind = System.getProperty("REPLICATION_BIND");
+
+        if (replicationBind != null && !replicationBind.isBlank()) {
+            REPLICATION_BIND = replicationBind.trim();
+        }
+
+        String replicationSecret = System.getProperty("REPLICATION_SECRET");
+
+        // the replication stream carries every stake, only followers knowing the secret get it
+        if (REPLICATION_PORT > 0 || REPLICA_OF != null) {
+            if (replicationSecret == null || replicationSecret.length() < 16) {
+                System.err.println("Invalid argument for REPLICATION_SECRET: at least 16 characters, required with REPLICATION_PORT or REPLICA_OF");
+                System.exit(1);
+            }
+            REPLICATION_SECRET = replicationSecret.getBytes(StandardCharsets.UTF_8);
+        }
+
+        String maxStalenessStr = System.getProperty("REPLICA_MAX_STALENESS_MS");
+
+        if (maxStalenessStr != null) {
+            try {
+                REPLICA_MAX_STALENESS_MS = Long.parseLong(maxStalenessStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for REPLICA_MAX_STALENESS_MS: " + maxStalenessStr);
+                System.exit(1);
+            }
+        }
+
+        COLD_STORAGE_DIR = System.getProperty("COLD_STORAGE_DIR");
+
+        // the off heap arena never gives memory back, evicting from it would only add disk
+        if (COLD_STORAGE_DIR != null && STAKE_HISTORY_OFF_HEAP) {
+            System.err.println("Invalid argument for COLD_STORAGE_DIR: not with STAKE_HISTORY_STORAGE=offheap");
+            System.exit(1);
+        }
+
+        String coldAfterStr = System.getProperty("COLD_AFTER_SECONDS");
+
+        if (coldAfterStr != null) {
+            try {
+                COLD_AFTER_SECONDS = Integer.parseInt(coldAfterStr);
+                if (COLD_AFTER_SECONDS <= 0) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for COLD_AFTER_SECONDS: " + coldAfterStr);
+                System.exit(1);
+            }
+        }
+
+        String coldCacheStr = System.getProperty("COLD_CACHE_OFFERS");
+
+        if (coldCacheStr != null) {
+            try {
+                COLD_CACHE_OFFERS = Integer.parseInt(coldCacheStr);
+                if (COLD_CACHE_OFFERS < 0) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid argument for COLD_CACHE_OFFERS: " + coldCacheStr);
+                System.exit(1);
+            }
+        }
+
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.betting;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses request paths of the form /{id}/{route} (and the id-less /stakes) in one pass,
+ * without regex, split or allocation. The result packs the route and the id in a long:
+ * use route() and id().
+ */
+public final class Router {
+
+    public static final int NOT_FOUND = 0;
+    public static final int SESSION = 1;
+    public static final int STAKE = 2;
+    public static final int HIGH_STAKES = 3;
+    // digits that don't fit in an int, answered with 400 like Integer.parseInt would
+    public static final int BAD_ID = 4;
+    public static final int BATCH_STAKES = 5;
+    public static final int HIGH_STAKES_STREAM = 6;
+
+    private static final String BATCH_STAKES_PATH = "/stakes";
+
+    // indexed by route id, null for the routes without an /{id}/ path
+    private static final String[] ROUTES = { null, "session", "stake", "highstakes", null, null, "highstakes/stream" };
+
+    private static final long NO_ROUTE = NOT_FOUND;
+
+    private Router() {
+    }
+
+    public static int route(long parsed) {
+        return (int) (parsed >>> 32);
+    }
+
+    public static int id(long parsed) {
+        return (int) parsed;
+    }
+
+    public static long parse(CharSequence path) {
+        int end = path.length();
+        if (end < 3 || path.charAt(0) != '/') {
+            return NO_ROUTE;
+        }
+        if (end == BATCH_STAKES_PATH.length() && regionMatches(path, 0, BATCH_STAKES_PATH)) {
+            return (long) BATCH_STAKES << 32;
+        }
+        long id = 0;
+        int i = 1;
+        for (char c; i < end && (c = path.charAt(i)) >= '0' && c <= '9'; i++) {
+            id = id * 10 + (c - '0');
+            if (id > Integer.MAX_VALUE) {
+                id = Integer.MAX_VALUE + 1L;// keep scanning, the route decides 404 vs 400
+            }
+        }
+        if (i == 1 || i == end || path.charAt(i) != '/') {
+            return NO_ROUTE;
+        }
+        int routeStart = i + 1;
+        for (int route = SESSION; route < ROUTES.length; route++) {
+            String name = ROUTES[route];
+            if (name != null && end - routeStart == name.length() && regionMatches(path, routeStart, name)) {
+                return result(route, id);
+            }
+        }
+        return NO_ROUTE;
+    }
+
+    /**
+     * Same as parse(CharSequence) for the ASCII path in [start, end) of a buffer
+     */
+    public static long parse(ByteBuffer buffer, int start, int end) {
+        if (end - start < 3 || buffer.get(start) != '/') {
+            return NO_ROUTE;
+        }
+        if (end - start == BATCH_STAKES_PATH.length() && regionMatches(buffer, start, BATCH_STAKES_PATH)) {
+            return (long) BATCH_STAKES << 32;
+        }
+        long id = 0;
+        int i = start + 1;
+        for (byte b; i < end && (b = buffer.get(i)) >= '0' && b <= '9'; i++) {
+            id = id * 10 + (b - '0');
+            if (id > Integer.MAX_VALUE) {
+                id = Integer.MAX_VALUE + 1L;
+            }
+        }
+        if (i == start + 1 || i == end || buffer.get(i) != '/') {
+            return NO_ROUTE;
+        }
+        int routeStart = i + 1;
+        for (int route = SESSION; route < ROUTES.length; route++) {
+            String name = ROUTES[route];
+            if (name != null && end - routeStart == name.length() && regionMatches(buffer, routeStart, name)) {
+                return result(route, id);
+            }
+        }
+        return NO_ROUTE;
+    }
+
+    private static long result(int route, long id) {
+        if (id > Integer.MAX_VALUE) {
+            return (long) BAD_ID << 32;
+        }
+        return (long) route << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    private static boolean regionMatches(CharSequence path, int start, String name) {
+        for (int j = 0; j < name.length(); j++) {
+            if (path.charAt(start + j) != name.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int start, String name) {
+        for (int j = 0; j < name.length(); j++) {
+            if (buffer.get(start + j) != name.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+package com.betting.cluster;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.Application;
+
+/**
+ * Partitioning of the bet offers over the nodes of -DCLUSTER_NODES.
+ *
+ * Every node owns the bet offers its range of the consistent hash ring maps to, and only
+ * keeps their stakes. A stake or high stakes request for an offer owned by another node is
+ * forwarded to it through one shared HttpClient, which keeps its connections open between
+ * requests. Forwarded requests carry an X-Cluster-Signature header keyed with CLUSTER_SECRET
+ * (see RequestSigner) and
+ * are never forwarded again, so nodes with different member lists can't bounce a request
+ * between them. A request with a signature that doesn't verify is refused, a client can't
+ * make a node store stakes of an offer it doesn't own.
+ *
+ * Sessions have to be tokens (-DSESSION_MODE=token with a shared secret), any node
+ * issues them and the owner validates them without asking anyone.
+ *
+ * Without CLUSTER_NODES the single node owns everything.
+ */
+public class Cluster {
+
+    private static Logger logger = LoggerFactory.getLogger(Cluster.class);
+
+    public static final String SIGNATURE_HEADER = "X-Cluster-Signature";
+
+    // forwarded() of a request from a client, from another node, or with a forged signature
+    public static final int NOT_FORWARDED = 0;
+    public static final int FORWARDED = 1;
+    public static final int FORGED = 2;
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(1);
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(2);
+
+    // answer when the owner can't be reached
+    public static final int UNAVAILABLE = 503;
+
+    // Singleton pattern, configured by Application before the first request
+    private static Cluster instance = new Cluster(Application.CLUSTER_NODES, Application.CLUSTER_SELF,
+            Application.CLUSTER_SECRET);
+
+    private final List<String> nodes;
+
+    private final int self;
+
+    private final HashRing ring;
+
+    private final HttpClient client;
+
+    private final RequestSigner signer;
+
+    private final LongAdder forwarded = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    Cluster(List<String> nodes, String self, byte[] secret) {
+        this.nodes = List.copyOf(nodes);
+        // List.of() rejects null lookups, a single node has no CLUSTER_SELF
+        this.self = self == null ? -1 : this.nodes.indexOf(self);
+        if (nodes.isEmpty()) {
+            ring = null;
+            client = null;
+            signer = null;
+            return;
+        }
+        ring = new HashRing(this.nodes);
+        signer = new RequestSigner(secret);
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static Cluster getInstance() {
+        return instance;
+    }
+
+    public boolean isClustered() {
+        return ring != null;
+    }
+
+    public boolean owns(int betOfferId) {
+        return ring == null || ring.ownerOf(betOfferId) == self;
+    }
+
+    /**
+     * Index in CLUSTER_NODES of the owner of the bet offer
+     */
+    public int ownerOf(int betOfferId) {
+        return ring == null ? self : ring.ownerOf(betOfferId);
+    }
+
+    /**
+     * Whether the request was forwarded by another node, checked against its signature.
+     * Without a cluster every request is handled locally anyway.
+     *
+     * @param signature the SIGNATURE_HEADER, null if absent
+     * @param target    raw path, and '?' and the raw query if any
+     * @param body      null or empty without a body
+     * @return NOT_FORWARDED, FORWARDED, or FORGED if the signature doesn't verify
+     */
+    public int forwarded(String signature, String method, String target, byte[] body) {
+        if (signature == null || signer == null) {
+            return NOT_FORWARDED;
+        }
+        return signer.verify(signature, method, target, body, System.currentTimeMillis()) ? FORWARDED : FORGED;
+    }
+
+    /**
+     * The target signed by the forwarding node: raw path, and '?' and the raw query if any
+     */
+    public static String target(String rawPath, String rawQuery) {
+        return rawQuery == null ? rawPath : rawPath + "?" + rawQuery;
+    }
+
+    /**
+     * POST /{betOfferId}/stake on the owner
+     *
+     * @return the status of the owner, UNAVAILABLE if it didn't answer
+     */
+    public int forwardStake(int betOfferId, String sessionKey, int stake) {
+        HttpResponse<byte[]> response = send(ownerOf(betOfferId), "/" + betOfferId + "/stake?sessionkey=" + sessionKey,
+                String.valueOf(stake));
+        return response == null ? UNAVAILABLE : response.statusCode();
+    }
+
+    /**
+     * GET /{betOfferId}/highstakes on the owner
+     *
+     * @return the csv, null if the owner didn't answer
+     */
+    public byte[] forwardHighStakes(int betOfferId) {
+        HttpResponse<byte[]> response = send(ownerOf(betOfferId), "/" + betOfferId + "/highstakes", null);
+        return response == null || response.statusCode() != 200 ? null : response.body();
+    }
+
+    /**
+     * POST /stakes on the node with items owned by it
+     *
+     * @return the per item statuses of the node, null if it didn't answer
+     */
+    public byte[] forwardStakes(int node, String sessionKey, String items) {
+        HttpResponse<byte[]> response = send(node, "/stakes?sessionkey=" + sessionKey, items);
+        return response == null || response.statusCode() != 200 ? null : response.body();
+    }
+
+    /**
+     * @param body null for a GET
+     * @return null if the node didn't answer
+     */
+    private HttpResponse<byte[]> send(int node, String pathAndQuery, String body) {
+        byte[] bytes = body == null ? null : body.getBytes(StandardCharsets.US_ASCII);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://" + nodes.get(node) + pathAndQuery))
+                .timeout(REQUEST_TIMEOUT)
+                .header(SIGNATURE_HEADER,
+                        signer.sign(body == null ? "GET" : "POST", pathAndQuery, bytes, System.currentTimeMillis()));
+        if (body != null) {
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(bytes));
+        }
+        forwarded.increment();
+        try {
+            return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            failures.increment();
+            logger.warn("Forwarding to {} failed: {}", nodes.get(node), e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            failures.increment();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    public long getForwardFailures() {
+        return failures.sum();
+    }
+}
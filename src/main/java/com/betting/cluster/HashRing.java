@@ -0,0 +1,64 @@
+package com.betting.cluster;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring of the cluster nodes, bet offer ids are mapped to their owner.
+ *
+ * Every node is placed at VIRTUAL_NODES points so the ids spread evenly, and adding or
+ * removing a node only moves the ids of the ranges next to its points. The points only
+ * depend on the node addresses, so every node computes the same ring from the same list.
+ */
+class HashRing {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    // sorted hashes of the points, and the node of each point
+    private final long[] points;
+    private final int[] owners;
+
+    HashRing(List<String> nodes) {
+        long[] hashes = new long[nodes.size() * VIRTUAL_NODES];
+        int i = 0;
+        for (int node = 0; node < nodes.size(); node++) {
+            int nodeHash = nodes.get(node).hashCode();
+            for (int replica = 0; replica < VIRTUAL_NODES; replica++) {
+                hashes[i++] = mix((long) nodeHash << 32 | replica);
+            }
+        }
+        // sort the points together with their node
+        Integer[] order = new Integer[hashes.length];
+        for (i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        points = new long[hashes.length];
+        owners = new int[hashes.length];
+        for (i = 0; i < order.length; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    /**
+     * Index of the node owning the bet offer: the first point at or after its hash
+     */
+    int ownerOf(int betOfferId) {
+        int i = Arrays.binarySearch(points, mix(betOfferId));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // finalizer of MurmurHash3, neighbouring ids land far apart
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,98 @@
+package com.betting.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signatures of the requests forwarded between nodes: {@code <millis>.<mac>}, the mac being
+ * the first 128 bits of HMAC-SHA256 with the shared CLUSTER_SECRET over the method, the raw
+ * path and query, the millis and the body, in hex.
+ *
+ * A signature is accepted for MAX_SKEW_MILLIS either side of its millis. Signatures are not
+ * remembered, so a captured request can be replayed within that window, not after it.
+ * Mac instances are pooled like in SessionTokens.
+ */
+class RequestSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_BYTES = 16;
+
+    // clock difference between nodes plus the forwarding timeout
+    static final long MAX_SKEW_MILLIS = 30_000;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final SecretKeySpec secret;
+
+    private final ConcurrentLinkedQueue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+    RequestSigner(byte[] secret) {
+        this.secret = new SecretKeySpec(secret, ALGORITHM);
+        macs.offer(newMac());// fail at startup if the algorithm is missing
+    }
+
+    /**
+     * @param target raw path, and '?' and the raw query if any
+     * @param body   null or empty without a body
+     */
+    String sign(String method, String target, byte[] body, long millis) {
+        return millis + "." + HEX.formatHex(mac(method, target, millis, body));
+    }
+
+    /**
+     * @return true if the signature was made with the secret for this request, around now
+     */
+    boolean verify(String signature, String method, String target, byte[] body, long now) {
+        int dot = signature.indexOf('.');
+        if (dot <= 0 || signature.length() - dot - 1 != MAC_BYTES * 2) {
+            return false;
+        }
+        try {
+            long millis = Long.parseLong(signature, 0, dot, 10);
+            if (Math.abs(now - millis) > MAX_SKEW_MILLIS) {
+                return false;
+            }
+            byte[] expected = HEX.parseHex(signature, dot + 1, signature.length());
+            // constant time, a mismatch position must not leak
+            return MessageDigest.isEqual(expected, mac(method, target, millis, body));
+        } catch (IllegalArgumentException e) {
+            return false;// NumberFormatException included
+        }
+    }
+
+    private byte[] mac(String method, String target, long millis, byte[] body) {
+        Mac mac = macs.poll();
+        if (mac == null) {
+            mac = newMac();
+        }
+        try {
+            mac.update((method + ' ' + target + '\n' + millis + '\n').getBytes(StandardCharsets.US_ASCII));
+            if (body != null) {
+                mac.update(body);
+            }
+            byte[] full = mac.doFinal();
+            byte[] truncated = new byte[MAC_BYTES];
+            System.arraycopy(full, 0, truncated, 0, MAC_BYTES);
+            return truncated;
+        } finally {
+            macs.offer(mac);
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create " + ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.betting.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent int -> int map without boxing.
+ *
+ * The keys are spread over a fixed number of segments, each segment is an open addressing
+ * table (linear probing, backward shift deletion) guarded by a StampedLock: reads are
+ * optimistic and lock free unless they race with a write of the same segment, writes lock
+ * only their segment.
+ *
+ * A value equal to noValue can not be stored, it is returned for missing keys.
+ */
+public class IntIntConcurrentMap {
+
+    private static final int SEGMENT_BITS = 6;
+
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    // marks a free slot in keys[], the key itself is stored aside
+    private static final int FREE_KEY = Integer.MIN_VALUE;
+
+    private final int noValue;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    @FunctionalInterface
+    public interface Remapping {
+        /**
+         * @param oldValue the current value or noValue if absent
+         * @return the new value, or noValue to remove the key
+         */
+        int apply(int key, int oldValue);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    public IntIntConcurrentMap(int noValue) {
+        this.noValue = noValue;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public int noValue() {
+        return noValue;
+    }
+
+    public int get(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != noValue;
+    }
+
+    /**
+     * @return the previous value or noValue
+     */
+    public int put(int key, int value) {
+        checkValue(value);
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.put(key, hash, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the previous value or noValue
+     */
+    public int remove(int key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.remove(key, hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the key only if it is currently mapped to the value
+     */
+    public boolean remove(int key, int value) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (segment.read(key, hash) != value || value == noValue) {
+                return false;
+            }
+            segment.remove(key, hash);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Atomically recompute the value of the key. The remapping runs under the lock of the
+     * segment, so concurrent computes of the same key are serialized: it can be used for
+     * single flight creation. It must be short and must not touch this map.
+     *
+     * @return the new value or noValue if removed
+     */
+    public int compute(int key, Remapping remapping) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            int oldValue = segment.read(key, hash);
+            int newValue = remapping.apply(key, oldValue);
+            if (newValue == noValue) {
+                if (oldValue != noValue) {
+                    segment.remove(key, hash);
+                }
+            } else if (newValue != oldValue) {
+                segment.put(key, hash, newValue);
+            }
+            return newValue;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Weakly consistent iteration, each segment is visited under its read lock
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                segment.forEach(consumer);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private void checkValue(int value) {
+        if (value == noValue) {
+            throw new IllegalArgumentException("Can not store the noValue " + noValue);
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    // murmur3 finalizer, customer/bet offer ids are often sequential
+    static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private final class Segment {
+
+        final StampedLock lock = new StampedLock();
+
+        // replaced as a whole on resize, so an optimistic reader always sees consistent arrays
+        volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+
+        // the FREE_KEY itself can not live in the table
+        volatile boolean hasFreeKey;
+        volatile int freeKeyValue;
+
+        volatile int size;
+
+        int get(int key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            int value = read(key, hash);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+            stamp = lock.readLock();
+            try {
+                return read(key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // no locking, callers either validate a stamp or hold a lock
+        int read(int key, int hash) {
+            if (key == FREE_KEY) {
+                return hasFreeKey ? freeKeyValue : noValue;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            // bounded, an optimistic read may see a table in the middle of a change
+            for (int n = 0; n <= mask; n++) {
+                int k = t.keys[i];
+                if (k == key) {
+                    return t.values[i];
+                }
+                if (k == FREE_KEY) {
+                    return noValue;
+                }
+                i = (i + 1) & mask;
+            }
+            return noValue;
+        }
+
+        // write lock held
+        int put(int key, int hash, int value) {
+            if (key == FREE_KEY) {
+                int old = hasFreeKey ? freeKeyValue : noValue;
+                freeKeyValue = value;
+                if (!hasFreeKey) {
+                    hasFreeKey = true;
+                    size++;
+                }
+                return old;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            while (true) {
+                int k = t.keys[i];
+                if (k == key) {
+                    int old = t.values[i];
+                    t.values[i] = value;
+                    return old;
+                }
+                if (k == FREE_KEY) {
+                    t.values[i] = value;
+                    t.keys[i] = key;
+                    t.used++;
+                    size++;
+                    if (t.used * 4 >= t.keys.length * 3) {
+                        table = t.resize();
+                    }
+                    return noValue;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        // write lock held
+        int remove(int key, int hash) {
+            if (key == FREE_KEY) {
+                if (!hasFreeKey) {
+                    return noValue;
+                }
+                hasFreeKey = false;
+                size--;
+                return freeKeyValue;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            while (true) {
+                int k = t.keys[i];
+                if (k == FREE_KEY) {
+                    return noValue;
+                }
+                if (k == key) {
+                    int old = t.values[i];
+                    t.shiftBack(i);
+                    t.used--;
+                    size--;
+                    return old;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        void forEach(EntryConsumer consumer) {
+            if (hasFreeKey) {
+                consumer.accept(FREE_KEY, freeKeyValue);
+            }
+            Table t = table;
+            for (int i = 0; i < t.keys.length; i++) {
+                if (t.keys[i] != FREE_KEY) {
+                    consumer.accept(t.keys[i], t.values[i]);
+                }
+            }
+        }
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final int[] values;
+        int used;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE_KEY);
+        }
+
+        Table resize() {
+            Table bigger = new Table(keys.length * 2);
+            int mask = bigger.keys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                int k = keys[i];
+                if (k != FREE_KEY) {
+                    int j = hash(k) & mask;
+                    while (bigger.keys[j] != FREE_KEY) {
+                        j = (j + 1) & mask;
+                    }
+                    bigger.keys[j] = k;
+                    bigger.values[j] = values[i];
+                }
+            }
+            bigger.used = used;
+            return bigger;
+        }
+
+        // backward shift deletion, keeps probe chains intact without tombstones
+        void shiftBack(int free) {
+            int mask = keys.length - 1;
+            int i = free;
+            while (true) {
+                i = (i + 1) & mask;
+                int k = keys[i];
+                if (k == FREE_KEY) {
+                    break;
+                }
+                int home = hash(k) & mask;
+                // move k into the hole if its home is not in (free, i]
+                if (((i - home) & mask) >= ((i - free) & mask)) {
+                    keys[free] = k;
+                    values[free] = values[i];
+                    free = i;
+                }
+            }
+            keys[free] = FREE_KEY;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.betting.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * Concurrent int -> Object map without boxing the keys.
+ *
+ * Same layout as IntIntConcurrentMap: segments of open addressing tables guarded by a
+ * StampedLock, optimistic lock free reads and per segment writes. The number of segments
+ * is given at construction, so small nested maps don't pay for a wide striping.
+ *
+ * null values can not be stored, null is returned for missing keys.
+ */
+public class IntObjConcurrentMap<V> {
+
+    public static final int DEFAULT_SEGMENT_BITS = 6;
+
+    private static final int INITIAL_SEGMENT_CAPACITY = 4;
+
+    // marks a free slot in keys[], the key itself is stored aside
+    private static final int FREE_KEY = Integer.MIN_VALUE;
+
+    private final int segmentShift;
+
+    private final Segment<V>[] segments;
+
+    @FunctionalInterface
+    public interface Remapping<V> {
+        /**
+         * @param oldValue the current value or null if absent
+         * @return the new value, or null to remove the key
+         */
+        V apply(int key, V oldValue);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    public IntObjConcurrentMap() {
+        this(DEFAULT_SEGMENT_BITS);
+    }
+
+    /**
+     * @param segmentBits log2 of the number of segments, 0 for a single segment
+     */
+    public IntObjConcurrentMap(int segmentBits) {
+        if (segmentBits < 0 || segmentBits > 16) {
+            throw new IllegalArgumentException("segmentBits out of range: " + segmentBits);
+        }
+        this.segmentShift = 32 - segmentBits;
+        @SuppressWarnings("unchecked")
+        Segment<V>[] segments = (Segment<V>[]) new Segment<?>[1 << segmentBits];
+        this.segments = segments;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    public V get(int key) {
+        int hash = IntIntConcurrentMap.hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * @return the previous value or null
+     */
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int hash = IntIntConcurrentMap.hash(key);
+        Segment<V> segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.put(key, hash, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the previous value or null
+     */
+    public V remove(int key) {
+        int hash = IntIntConcurrentMap.hash(key);
+        Segment<V> segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.remove(key, hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the key only if it is currently mapped to the value (identity)
+     */
+    public boolean remove(int key, V value) {
+        int hash = IntIntConcurrentMap.hash(key);
+        Segment<V> segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (value == null || segment.read(key, hash) != value) {
+                return false;
+            }
+            segment.remove(key, hash);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * The value of the key, created under the segment lock if absent, so it's created once
+     */
+    public V computeIfAbsent(int key, IntFunction<? extends V> factory) {
+        int hash = IntIntConcurrentMap.hash(key);
+        Segment<V> segment = segmentFor(hash);
+        V value = segment.get(key, hash);
+        if (value != null) {
+            return value;
+        }
+        long stamp = segment.lock.writeLock();
+        try {
+            value = segment.read(key, hash);
+            if (value == null) {
+                value = factory.apply(key);
+                segment.put(key, hash, value);
+            }
+            return value;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Atomically recompute the value of the key, the remapping runs under the segment lock.
+     * It must be short and must not touch this map.
+     *
+     * @return the new value or null if removed
+     */
+    public V compute(int key, Remapping<V> remapping) {
+        int hash = IntIntConcurrentMap.hash(key);
+        Segment<V> segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            V oldValue = segment.read(key, hash);
+            V newValue = remapping.apply(key, oldValue);
+            if (newValue == null) {
+                if (oldValue != null) {
+                    segment.remove(key, hash);
+                }
+            } else if (newValue != oldValue) {
+                segment.put(key, hash, newValue);
+            }
+            return newValue;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Weakly consistent iteration, each segment is visited under its read lock, so the
+     * consumer must not write to this map
+     */
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (Segment<V> segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                segment.forEach(consumer);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        // a shift of 32 is a no-op in java, a single segment always has index 0
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static final class Segment<V> {
+
+        final StampedLock lock = new StampedLock();
+
+        // replaced as a whole on resize, so an optimistic reader always sees consistent arrays
+        volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+
+        // the FREE_KEY itself can not live in the table
+        volatile Object freeKeyValue;
+
+        volatile int size;
+
+        V get(int key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            V value = read(key, hash);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+            stamp = lock.readLock();
+            try {
+                return read(key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // no locking, callers either validate a stamp or hold a lock
+        @SuppressWarnings("unchecked")
+        V read(int key, int hash) {
+            if (key == FREE_KEY) {
+                return (V) freeKeyValue;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            // bounded, an optimistic read may see a table in the middle of a change
+            for (int n = 0; n <= mask; n++) {
+                int k = t.keys[i];
+                if (k == key) {
+                    return (V) t.values[i];
+                }
+                if (k == FREE_KEY) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        // write lock held
+        @SuppressWarnings("unchecked")
+        V put(int key, int hash, V value) {
+            if (key == FREE_KEY) {
+                V old = (V) freeKeyValue;
+                freeKeyValue = value;
+                if (old == null) {
+                    size++;
+                }
+                return old;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            while (true) {
+                int k = t.keys[i];
+                if (k == key) {
+                    V old = (V) t.values[i];
+                    t.values[i] = value;
+                    return old;
+                }
+                if (k == FREE_KEY) {
+                    t.values[i] = value;
+                    t.keys[i] = key;
+                    t.used++;
+                    size++;
+                    if (t.used * 4 >= t.keys.length * 3) {
+                        table = t.resize();
+                    }
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        // write lock held
+        @SuppressWarnings("unchecked")
+        V remove(int key, int hash) {
+            if (key == FREE_KEY) {
+                V old = (V) freeKeyValue;
+                if (old != null) {
+                    freeKeyValue = null;
+                    size--;
+                }
+                return old;
+            }
+            Table t = table;
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            while (true) {
+                int k = t.keys[i];
+                if (k == FREE_KEY) {
+                    return null;
+                }
+                if (k == key) {
+                    V old = (V) t.values[i];
+                    t.shiftBack(i);
+                    t.used--;
+                    size--;
+                    return old;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(EntryConsumer<? super V> consumer) {
+            Object free = freeKeyValue;
+            if (free != null) {
+                consumer.accept(FREE_KEY, (V) free);
+            }
+            Table t = table;
+            for (int i = 0; i < t.keys.length; i++) {
+                if (t.keys[i] != FREE_KEY) {
+                    consumer.accept(t.keys[i], (V) t.values[i]);
+                }
+            }
+        }
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        int used;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            Arrays.fill(keys, FREE_KEY);
+        }
+
+        Table resize() {
+            Table bigger = new Table(keys.length * 2);
+            int mask = bigger.keys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                int k = keys[i];
+                if (k != FREE_KEY) {
+                    int j = IntIntConcurrentMap.hash(k) & mask;
+                    while (bigger.keys[j] != FREE_KEY) {
+                        j = (j + 1) & mask;
+                    }
+                    bigger.keys[j] = k;
+                    bigger.values[j] = values[i];
+                }
+            }
+            bigger.used = used;
+            return bigger;
+        }
+
+        // backward shift deletion, keeps probe chains intact without tombstones
+        void shiftBack(int free) {
+            int mask = keys.length - 1;
+            int i = free;
+            while (true) {
+                i = (i + 1) & mask;
+                int k = keys[i];
+                if (k == FREE_KEY) {
+                    break;
+                }
+                int home = IntIntConcurrentMap.hash(k) & mask;
+                // move k into the hole if its home is not in (free, i]
+                if (((i - home) & mask) >= ((i - free) & mask)) {
+                    keys[free] = k;
+                    values[free] = values[i];
+                    free = i;
+                }
+            }
+            keys[free] = FREE_KEY;
+            values[free] = null;
+        }
+    }
+}
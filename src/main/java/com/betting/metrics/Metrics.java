@@ -0,0 +1,233 @@
+package com.betting.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.betting.Router;
+import com.betting.cluster.Cluster;
+import com.betting.replication.Replication;
+import com.betting.stake.HighStakesSubscriptions;
+import com.betting.stake.StakeManager;
+import com.betting.systemmanager.ConcurrencyLimiter;
+import com.betting.systemmanager.GcMonitor;
+
+/**
+ * Request and internal metrics of the service, rendered in the Prometheus text format
+ * by scrape().
+ *
+ * Recording is lock free: per route a latency histogram and a LongAdder per status,
+ * so a request costs two nanoTime calls and two atomic increments. Gauges that need a
+ * walk over the data (bet offers, leaderboard sizes) are only computed when scraped.
+ */
+public class Metrics {
+
+    // indexed by the Router route ids
+    private static final String[] ROUTE_NAMES = { "not_found", "session", "stake", "highstakes", "bad_id", "stakes", "highstakes_stream" };
+
+    private static final int[] STATUSES = { 200, 400, 401, 404, 405, 413, 421, 500, 503 };
+
+    // slot for any status not in STATUSES
+    private static final int OTHER_STATUS = STATUSES.length;
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static final int[] LEADERBOARD_BUCKETS = { 1, 2, 5, 10, 15, 19, 20 };
+
+    // Singleton pattern, after the constants it needs
+    private static Metrics instance = new Metrics();
+
+    private final Histogram[] requestDurations = new Histogram[ROUTE_NAMES.length];
+
+    private final LongAdder[][] requests = new LongAdder[ROUTE_NAMES.length][STATUSES.length + 1];
+
+    private final Histogram sessionCleanupDurations = new Histogram();
+
+    private final LongAdder expiredSessions = new LongAdder();
+
+    private final Histogram snapshotDurations = new Histogram();
+
+    private final Histogram gcPauses = new Histogram();
+
+    private Metrics() {
+        for (int route = 0; route < ROUTE_NAMES.length; route++) {
+            requestDurations[route] = new Histogram();
+            for (int status = 0; status <= STATUSES.length; status++) {
+                requests[route][status] = new LongAdder();
+            }
+        }
+    }
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param route   a Router route id
+     * @param nanos   time spent handling the request
+     */
+    public void recordRequest(int route, int status, long nanos) {
+        if (route < 0 || route >= ROUTE_NAMES.length) {
+            route = Router.NOT_FOUND;
+        }
+        requestDurations[route].record(nanos);
+        requests[route][statusSlot(status)].increment();
+    }
+
+    public void recordSessionCleanup(long nanos, int expired) {
+        sessionCleanupDurations.record(nanos);
+        expiredSessions.add(expired);
+    }
+
+    public void recordSnapshot(long nanos) {
+        snapshotDurations.record(nanos);
+    }
+
+    public void recordGcPause(long nanos) {
+        gcPauses.record(nanos);
+    }
+
+    private static int statusSlot(int status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i] == status) {
+                return i;
+            }
+        }
+        return OTHER_STATUS;
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format (version 0.0.4)
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "stakes_request_duration_seconds", "summary", "Time to handle a request, per route");
+        for (int route = 0; route < ROUTE_NAMES.length; route++) {
+            summary(out, "stakes_request_duration_seconds", "route=\"" + ROUTE_NAMES[route] + "\"",
+                    requestDurations[route].snapshot());
+        }
+
+        header(out, "stakes_requests_total", "counter", "Requests handled, per route and status");
+        for (int route = 0; route < ROUTE_NAMES.length; route++) {
+            for (int slot = 0; slot <= STATUSES.length; slot++) {
+                long count = requests[route][slot].sum();
+                if (count > 0) {
+                    out.append("stakes_requests_total{route=\"").append(ROUTE_NAMES[route]).append("\",status=\"")
+                            .append(slot == OTHER_STATUS ? "other" : String.valueOf(STATUSES[slot])).append("\"} ")
+                            .append(count).append('\n');
+                }
+            }
+        }
+
+        header(out, "stakes_session_cleanup_duration_seconds", "summary", "Duration of the expired session cleanup");
+        summary(out, "stakes_session_cleanup_duration_seconds", null, sessionCleanupDurations.snapshot());
+
+        header(out, "stakes_sessions_expired_total", "counter", "Sessions released by the cleanup");
+        out.append("stakes_sessions_expired_total ").append(expiredSessions.sum()).append('\n');
+
+        header(out, "stakes_snapshot_duration_seconds", "summary", "Duration of the stake snapshots");
+        summary(out, "stakes_snapshot_duration_seconds", null, snapshotDurations.snapshot());
+
+        header(out, "stakes_gc_pause_seconds", "summary", "Stop-the-world GC pauses");
+        summary(out, "stakes_gc_pause_seconds", null, gcPauses.snapshot());
+
+        GcMonitor gc = GcMonitor.getInstance();
+        header(out, "stakes_old_gen_after_gc_ratio", "gauge", "Old generation occupancy after the last GC");
+        out.append("stakes_old_gen_after_gc_ratio ").append(gc.getOldGenRatioAfterGc()).append('\n');
+        header(out, "stakes_allocated_bytes_total", "counter", "Bytes allocated on the heap, as of the last GC");
+        out.append("stakes_allocated_bytes_total ").append(gc.getAllocatedBytes()).append('\n');
+
+        Cluster cluster = Cluster.getInstance();
+        if (cluster.isClustered()) {
+            header(out, "stakes_forwarded_requests_total", "counter", "Requests forwarded to the owning node");
+            out.append("stakes_forwarded_requests_total ").append(cluster.getForwarded()).append('\n');
+            header(out, "stakes_forward_failures_total", "counter", "Forwarded requests the owner didn't answer");
+            out.append("stakes_forward_failures_total ").append(cluster.getForwardFailures()).append('\n');
+        }
+
+        Replication replication = Replication.getInstance();
+        if (replication.isLeader()) {
+            header(out, "stakes_replication_followers", "gauge", "Followers streaming the stakes of this leader");
+            out.append("stakes_replication_followers ").append(replication.getFollowers()).append('\n');
+        }
+        if (replication.isReplica()) {
+            header(out, "stakes_replication_lag_records", "gauge", "Stakes of the leader not applied yet, -1 while not in sync");
+            out.append("stakes_replication_lag_records ").append(replication.getLagRecords()).append('\n');
+            header(out, "stakes_replication_staleness_seconds", "gauge",
+                    "Time since this follower last had all the stakes of the leader, -1 while not in sync");
+            out.append("stakes_replication_staleness_seconds ").append(replication.getStalenessSeconds()).append('\n');
+        }
+
+        HighStakesSubscriptions subscriptions = HighStakesSubscriptions.getInstance();
+        header(out, "stakes_highstakes_subscribers", "gauge", "Event streams and long polls waiting for a top 20");
+        out.append("stakes_highstakes_subscribers ").append(subscriptions.getSubscribers()).append('\n');
+        header(out, "stakes_highstakes_topics", "gauge", "Bet offers with a top 20 kept for subscribers, idle ones included");
+        out.append("stakes_highstakes_topics ").append(subscriptions.getTopics()).append('\n');
+        header(out, "stakes_highstakes_updates_total", "counter", "Top 20 snapshots published to the subscribers");
+        out.append("stakes_highstakes_updates_total ").append(subscriptions.getUpdates()).append('\n');
+
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance();
+        header(out, "stakes_concurrency_limit", "gauge", "Adaptive limit of requests in flight");
+        out.append("stakes_concurrency_limit ").append(limiter.getLimit()).append('\n');
+        header(out, "stakes_inflight_requests", "gauge", "Requests in flight");
+        out.append("stakes_inflight_requests ").append(limiter.getInFlight()).append('\n');
+
+        StakeManager stakeManager = StakeManager.getInstance();
+        if (stakeManager.isColdStorageEnabled()) {
+            header(out, "stakes_cold_bet_offers", "gauge", "Bet offers evicted to the cold storage");
+            out.append("stakes_cold_bet_offers ").append(stakeManager.getColdOffers()).append('\n');
+            header(out, "stakes_cold_bytes", "gauge", "Compressed size of the evicted bet offers");
+            out.append("stakes_cold_bytes ").append(stakeManager.getColdBytes()).append('\n');
+            header(out, "stakes_cold_evictions_total", "counter", "Bet offers evicted to the cold storage");
+            out.append("stakes_cold_evictions_total ").append(stakeManager.getColdEvictions()).append('\n');
+            header(out, "stakes_cold_faults_total", "counter", "Evicted bet offers loaded back by a read or a stake");
+            out.append("stakes_cold_faults_total ").append(stakeManager.getColdFaults()).append('\n');
+        }
+
+        long[] sizes = stakeManager.leaderboardSizeCounts();
+        long offers = 0;
+        long sizeSum = 0;
+        for (int size = 0; size < sizes.length; size++) {
+            offers += sizes[size];
+            sizeSum += (long) size * sizes[size];
+        }
+
+        header(out, "stakes_bet_offers", "gauge", "Bet offers in memory with at least one stake");
+        out.append("stakes_bet_offers ").append(offers).append('\n');
+
+        header(out, "stakes_leaderboard_size", "histogram", "Entries in the top 20 of the bet offers");
+        long cumulative = 0;
+        int size = 0;
+        for (int le : LEADERBOARD_BUCKETS) {
+            for (; size <= le && size < sizes.length; size++) {
+                cumulative += sizes[size];
+            }
+            out.append("stakes_leaderboard_size_bucket{le=\"").append(le).append("\"} ").append(cumulative)
+                    .append('\n');
+        }
+        out.append("stakes_leaderboard_size_bucket{le=\"+Inf\"} ").append(offers).append('\n');
+        out.append("stakes_leaderboard_size_sum ").append(sizeSum).append('\n');
+        out.append("stakes_leaderboard_size_count ").append(offers).append('\n');
+
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram.Snapshot snapshot) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double q : QUANTILES) {
+            out.append(name).append('{').append(prefix).append("quantile=\"").append(q).append("\"} ")
+                    .append(seconds(snapshot.quantile(q))).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(seconds(snapshot.sum())).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(snapshot.count()).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
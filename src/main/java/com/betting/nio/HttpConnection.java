@@ -0,0 +1,509 @@
+package com.betting.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.betting.stake.BatchStakeHandler;
+
+/**
+ * One keep-alive connection: HTTP/1.1 requests are parsed in place in the pooled read
+ * buffer, responses are written into the pooled write buffer.
+ *
+ * Ownership moves between the event loop (reading, writing) and one worker at a time
+ * (handling the pipelined requests of a batch in order), so the buffers are never
+ * touched by two threads at once and responses keep the order of the requests. A worker
+ * whose responses fill the write buffer writes it out itself, a request that has run is
+ * always answered.
+ *
+ * The headers of a request must fit in a pooled buffer. A body that doesn't fit is read
+ * into a larger heap buffer, up to MAX_BODY_SIZE, and the connection goes back to a pooled
+ * buffer once that request is handled.
+ */
+class HttpConnection {
+
+    static final int METHOD_GET = 1;
+    static final int METHOD_POST = 2;
+    static final int METHOD_OTHER = 3;
+
+    // pipelined requests handled per batch
+    static final int MAX_BATCH = 16;
+
+    // the largest body of any route, a full batch of stakes
+    static final int MAX_BODY_SIZE = BatchStakeHandler.MAX_BODY_BYTES;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final byte[] CONTENT_LENGTH = "\r\nContent-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RETRY_AFTER = "\r\nRetry-After: ".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte[] VERSION = "\r\nX-Version: ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EVENT_STREAM = ("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Offsets of one parsed request in the read buffer, reused between requests
+     */
+    static final class Request {
+        int method;
+        int pathStart;
+        int pathEnd;
+        int queryStart;// -1 if no query
+        int queryEnd;
+        int bodyStart;
+        int bodyEnd;
+        int signatureStart;// -1 if no X-Cluster-Signature header
+        int signatureEnd;
+        boolean keepAlive;
+    }
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    private final BufferPool pool;
+    // replaced while a large body is read
+    ByteBuffer readBuffer;
+    final ByteBuffer writeBuffer;
+
+    final Request[] requests = new Request[MAX_BATCH];
+    int requestCount = 0;
+
+    // start of the first byte not parsed yet in the read buffer
+    private int parsed = 0;
+
+    boolean closeAfterWrite = false;
+
+    // status of the last response written, for the access log
+    int lastStatus;
+
+    HttpConnection(SocketChannel channel, SelectionKey key, BufferPool pool) {
+        this.channel = channel;
+        this.key = key;
+        this.pool = pool;
+        this.readBuffer = pool.acquire();
+        this.writeBuffer = pool.acquire();
+        for (int i = 0; i < MAX_BATCH; i++) {
+            requests[i] = new Request();
+        }
+    }
+
+    /**
+     * Parse the complete requests available in the read buffer (write mode, data in [0, position))
+     *
+     * @return 0, or the status to answer before closing: 400 if the input is not valid HTTP
+     *         or its headers don't fit the buffer, 413 if a body is above MAX_BODY_SIZE
+     */
+    int parseRequests() {
+        ByteBuffer in = readBuffer;
+        int limit = in.position();
+        while (requestCount < MAX_BATCH) {
+            int headerEnd = indexOfHeaderEnd(in, parsed, limit);
+            if (headerEnd < 0) {
+                // the headers must fit in the buffer
+                return limit - parsed < in.capacity() || parsed > 0 ? 0 : 400;
+            }
+
+            Request request = requests[requestCount];
+            int lineEnd = indexOf(in, (byte) '\r', parsed, headerEnd + 1);
+            int methodEnd = indexOf(in, (byte) ' ', parsed, lineEnd);
+            if (methodEnd < 0) {
+                return 400;
+            }
+            request.method = method(in, parsed, methodEnd);
+            int targetEnd = indexOf(in, (byte) ' ', methodEnd + 1, lineEnd);
+            if (targetEnd < 0) {
+                return 400;
+            }
+            request.pathStart = methodEnd + 1;
+            int question = indexOf(in, (byte) '?', request.pathStart, targetEnd);
+            if (question < 0) {
+                request.pathEnd = targetEnd;
+                request.queryStart = -1;
+            } else {
+                request.pathEnd = question;
+                request.queryStart = question + 1;
+                request.queryEnd = targetEnd;
+            }
+            // HTTP/1.1 is keep-alive by default, HTTP/1.0 is not
+            request.keepAlive = in.get(lineEnd - 1) == '1';
+
+            int contentLength = 0;
+            request.signatureStart = -1;
+            int line = lineEnd + 2;
+            while (line < headerEnd) {
+                int end = indexOf(in, (byte) '\r', line, headerEnd + 2);
+                if (headerNameIs(in, line, end, "content-length")) {
+                    contentLength = parseHeaderInt(in, line + 15, end);
+                    if (contentLength < 0) {
+                        return 400;
+                    }
+                } else if (headerNameIs(in, line, end, "connection")) {
+                    request.keepAlive = !headerValueContains(in, line + 11, end, "close");
+                } else if (headerNameIs(in, line, end, "x-cluster-signature")) {
+                    int start = line + 20;
+                    while (start < end && in.get(start) == ' ') {
+                        start++;
+                    }
+                    request.signatureStart = start;
+                    request.signatureEnd = end;
+                } else if (headerNameIs(in, line, end, "transfer-encoding")) {
+                    // chunked request bodies are not supported
+                    return 400;
+                }
+                line = end + 2;
+            }
+
+            if (contentLength > MAX_BODY_SIZE) {
+                return 413;
+            }
+            int bodyStart = headerEnd + 4;
+            if (bodyStart - parsed + contentLength > in.capacity()) {
+                if (requestCount > 0) {
+                    return 0;// handle the batch first, this request is parsed again from the start
+                }
+                grow(bodyStart + contentLength);// parsed is 0 without a batch
+                in = readBuffer;
+            }
+            if (bodyStart + contentLength > limit) {
+                return 0;// wait for the rest of the body
+            }
+            request.bodyStart = bodyStart;
+            request.bodyEnd = bodyStart + contentLength;
+            parsed = request.bodyEnd;
+            requestCount++;
+            if (!request.keepAlive) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Drop the bytes of the handled requests from the read buffer
+     */
+    void compactReadBuffer() {
+        readBuffer.flip();
+        readBuffer.position(parsed);
+        readBuffer.compact();
+        parsed = 0;
+        requestCount = 0;
+        if (readBuffer.capacity() > pool.bufferSize() && readBuffer.position() <= pool.bufferSize()) {
+            // the large request is handled, back to a pooled buffer
+            ByteBuffer pooled = pool.acquire();
+            readBuffer.flip();
+            pooled.put(readBuffer);
+            readBuffer = pooled;
+        }
+    }
+
+    /**
+     * Move the unparsed input to a heap buffer of size bytes, for a body larger than the
+     * pooled buffers
+     */
+    private void grow(int size) {
+        ByteBuffer grown = ByteBuffer.allocate(size);
+        readBuffer.flip();
+        grown.put(readBuffer);
+        pool.release(readBuffer);
+        readBuffer = grown;
+    }
+
+    /**
+     * @return false if the connection failed, the response can't be sent any more
+     */
+    boolean writeResponse(int status, byte[] body) {
+        return writeResponse(status, body, 0);
+    }
+
+    /**
+     * @param retryAfter seconds for a Retry-After header, 0 for none
+     */
+    boolean writeResponse(int status, byte[] body, int retryAfter) {
+        return retryAfter > 0 ? writeResponse(status, body, RETRY_AFTER, retryAfter) : writeResponse(status, body, null, 0);
+    }
+
+    /**
+     * @param header one of the header prefixes of this class, null for none
+     * @param value  the numeric value of the header
+     */
+    boolean writeResponse(int status, byte[] body, byte[] header, long value) {
+        int length = body == null ? 0 : body.length;
+        byte[] statusLine = statusLine(status);
+        int size = statusLine.length + CONTENT_LENGTH.length + 10 + (header == null ? 0 : header.length + 20) + 4 + length;
+        lastStatus = status;
+        if (writeBuffer.remaining() < size) {
+            // the responses of the previous pipelined requests fill the buffer, and this
+            // request has run already: write them out first, on the worker
+            try {
+                drain();
+            } catch (IOException e) {
+                return false;
+            }
+            if (writeBuffer.remaining() < size) {
+                return false;// larger than a buffer, no route answers that much
+            }
+        }
+        writeBuffer.put(statusLine);
+        if (header != null) {
+            writeBuffer.put(header);
+            putDigits(writeBuffer, value);
+        }
+        writeBuffer.put(CONTENT_LENGTH);
+        putDigits(writeBuffer, length);
+        writeBuffer.put(CRLF).put(CRLF);
+        if (length > 0) {
+            writeBuffer.put(body);
+        }
+        return true;
+    }
+
+    private static void putDigits(ByteBuffer out, long value) {
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * @return true when everything in the write buffer has been written
+     */
+    boolean flush() throws IOException {
+        writeBuffer.flip();
+        channel.write(writeBuffer);
+        boolean done = !writeBuffer.hasRemaining();
+        writeBuffer.compact();
+        return done;
+    }
+
+    /**
+     * Start a server-sent event stream, for a worker that keeps the connection until the
+     * client goes away; it is closed afterwards
+     */
+    void startEventStream() throws IOException {
+        lastStatus = 200;
+        closeAfterWrite = true;
+        send(EVENT_STREAM);
+    }
+
+    /**
+     * Write the bytes out right away, after anything still in the write buffer. The worker
+     * waits while the socket buffer is full.
+     */
+    void send(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int chunk = Math.min(writeBuffer.remaining(), bytes.length - offset);
+            writeBuffer.put(bytes, offset, chunk);
+            offset += chunk;
+            drain();
+        }
+    }
+
+    /**
+     * Write the whole write buffer out, for the worker owning the connection. It waits while
+     * the socket buffer is full.
+     */
+    private void drain() throws IOException {
+        while (!flush()) {
+            try {// the socket buffer is full
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    int writeRemaining() {
+        return writeBuffer.remaining();
+    }
+
+    /**
+     * The int parsed from [start, end) of the read buffer, for a body or an id
+     *
+     * @throws NumberFormatException like Integer.parseInt
+     */
+    int parseInt(int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("empty");
+        }
+        boolean negative = readBuffer.get(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("sign only");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = readBuffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a digit");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("overflow");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("overflow");
+        }
+        return (int) value;
+    }
+
+    String method(Request request) {
+        return switch (request.method) {
+            case METHOD_GET -> "GET";
+            case METHOD_POST -> "POST";
+            default -> "OTHER";
+        };
+    }
+
+    /**
+     * The value of the query parameter, or null
+     */
+    String queryParameter(Request request, String name) {
+        if (request.queryStart < 0) {
+            return null;
+        }
+        int start = request.queryStart;
+        while (start < request.queryEnd) {
+            int end = indexOf(readBuffer, (byte) '&', start, request.queryEnd);
+            if (end < 0) {
+                end = request.queryEnd;
+            }
+            if (end - start > name.length() && readBuffer.get(start + name.length()) == '='
+                    && regionMatches(readBuffer, start, name)) {
+                return ascii(start + name.length() + 1, end);
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        readBuffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static final int[] STATUSES = { 200, 400, 401, 404, 405, 413, 421, 500, 503 };
+
+    private static final byte[][] STATUS_LINES = new byte[STATUSES.length][];
+
+    static {
+        for (int i = 0; i < STATUSES.length; i++) {
+            STATUS_LINES[i] = ("HTTP/1.1 " + STATUSES[i] + " " + reason(STATUSES[i])).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static byte[] statusLine(int status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i] == status) {
+                return STATUS_LINES[i];
+            }
+        }
+        return statusLine(500);
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 413 -> "Content Too Large";
+            case 421 -> "Misdirected Request";
+            case 503 -> "Service Unavailable";
+            default -> "Internal Server Error";
+        };
+    }
+
+    private static int method(ByteBuffer in, int start, int end) {
+        if (end - start == 3 && in.get(start) == 'G' && in.get(start + 1) == 'E' && in.get(start + 2) == 'T') {
+            return METHOD_GET;
+        }
+        if (end - start == 4 && in.get(start) == 'P' && in.get(start + 1) == 'O' && in.get(start + 2) == 'S'
+                && in.get(start + 3) == 'T') {
+            return METHOD_POST;
+        }
+        return METHOD_OTHER;
+    }
+
+    private static int indexOfHeaderEnd(ByteBuffer in, int from, int limit) {
+        for (int i = from; i + 3 < limit; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer in, byte b, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (in.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(ByteBuffer in, int start, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (in.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // case insensitive "name:" at the start of the header line
+    private static boolean headerNameIs(ByteBuffer in, int start, int end, String lowerName) {
+        if (end - start <= lowerName.length() || in.get(start + lowerName.length()) != ':') {
+            return false;
+        }
+        for (int i = 0; i < lowerName.length(); i++) {
+            if (Character.toLowerCase((char) in.get(start + i)) != lowerName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean headerValueContains(ByteBuffer in, int start, int end, String lowerValue) {
+        for (int i = start; i + lowerValue.length() <= end; i++) {
+            boolean match = true;
+            for (int j = 0; j < lowerValue.length() && match; j++) {
+                match = Character.toLowerCase((char) in.get(i + j)) == lowerValue.charAt(j);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int parseHeaderInt(ByteBuffer in, int start, int end) {
+        long value = 0;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = in.get(i);
+            if (b == ' ' || b == '\t') {
+                continue;
+            }
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+            digits = true;
+        }
+        return digits && value <= Integer.MAX_VALUE ? (int) value : -1;
+    }
+}
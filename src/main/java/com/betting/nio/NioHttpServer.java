@@ -0,0 +1,428 @@
+package com.betting.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.AccessLog;
+import com.betting.Router;
+import com.betting.cluster.Cluster;
+import com.betting.metrics.Metrics;
+import com.betting.session.SessionManager;
+import com.betting.stake.BatchStakeHandler;
+import com.betting.stake.HighStakesHandler;
+import com.betting.stake.HighStakesStreamHandler;
+import com.betting.stake.HighStakesSubscriptions;
+import com.betting.stake.StakeHandler;
+import com.betting.stake.StakeManager;
+import com.betting.systemmanager.ConcurrencyLimiter;
+
+/**
+ * Minimal HTTP/1.1 server on java.nio channels, an alternative to com.sun.net.httpserver
+ * selected by -DHTTP_SERVER=nio.
+ *
+ * One acceptor hands the connections round robin to the event loops. A loop only does
+ * the I/O: it reads into the pooled buffer of the connection, parses the complete
+ * (possibly pipelined) requests in place and hands the batch to a virtual thread, which
+ * runs the same session/stake/highstakes/batch logic as the default server and writes the
+ * responses into the pooled write buffer. The loop then flushes them and reads the next
+ * batch, the connection is kept alive.
+ */
+public class NioHttpServer {
+
+    private static Logger logger = LoggerFactory.getLogger(NioHttpServer.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] BUSY = "Please try later!".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocketChannel serverChannel;
+
+    private final EventLoop[] loops;
+
+    private final ExecutorService workers;
+
+    private final BufferPool bufferPool;
+
+    private final StakeHandler stakeHandler = new StakeHandler(SessionManager.getInstance(), StakeManager.getInstance());
+
+    private final BatchStakeHandler batchStakeHandler = new BatchStakeHandler(SessionManager.getInstance(),
+            StakeManager.getInstance());
+
+    private final HighStakesHandler highStakesHandler = new HighStakesHandler(StakeManager.getInstance());
+
+    private final HighStakesStreamHandler streamHandler = new HighStakesStreamHandler(
+            HighStakesSubscriptions.getInstance());
+
+    private final Metrics metrics = Metrics.getInstance();
+
+    private final Cluster cluster = Cluster.getInstance();
+
+    private final ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance();
+
+    private volatile boolean running = true;
+
+    public NioHttpServer(int port, int loopCount, ExecutorService workers) throws IOException {
+        this.workers = workers;
+        this.bufferPool = new BufferPool(BUFFER_SIZE, 4096);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        Thread.ofPlatform().name("nio-acceptor").start(this::acceptLoop);
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the server channel", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Accept failed", e);
+                }
+            }
+        }
+    }
+
+    private final class EventLoop {
+
+        final Selector selector;
+
+        final Thread thread;
+
+        // new channels, and connections handed back by the workers
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<HttpConnection> handled = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = Thread.ofPlatform().name("nio-loop-" + index).unstarted(this::run);
+        }
+
+        void register(SocketChannel channel) {
+            accepted.offer(channel);
+            selector.wakeup();
+        }
+
+        void handedBack(HttpConnection connection) {
+            handled.offer(connection);
+            selector.wakeup();
+        }
+
+        private void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAccepted();
+                    resumeHandled();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        HttpConnection connection = (HttpConnection) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                close(connection);
+                            } else if (key.isReadable()) {
+                                read(connection);
+                            } else if (key.isWritable()) {
+                                write(connection);
+                            }
+                        } catch (IOException e) {
+                            close(connection);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                logger.error("Event loop stopped", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close((HttpConnection) key.attachment());
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close a selector", e);
+                }
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new HttpConnection(channel, key, bufferPool));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void resumeHandled() {
+            HttpConnection connection;
+            while ((connection = handled.poll()) != null) {
+                try {
+                    write(connection);
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+        }
+
+        private void read(HttpConnection connection) throws IOException {
+            int read = connection.channel.read(connection.readBuffer);
+            if (read < 0) {
+                close(connection);
+                return;
+            }
+            dispatch(connection);
+        }
+
+        /**
+         * Hand the complete requests to a worker, or wait for more input
+         */
+        private void dispatch(HttpConnection connection) {
+            int refused = connection.parseRequests();
+            if (refused != 0) {
+                connection.writeResponse(refused, null);
+                connection.closeAfterWrite = true;
+                handedBack(connection);
+                return;
+            }
+            if (connection.requestCount == 0) {
+                connection.key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            // the worker owns the connection until it hands it back
+            connection.key.interestOps(0);
+            workers.execute(() -> {
+                try {
+                    handleBatch(connection);
+                } finally {
+                    handedBack(connection);
+                }
+            });
+        }
+
+        private void write(HttpConnection connection) throws IOException {
+            if (!connection.flush()) {
+                connection.key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (connection.closeAfterWrite) {
+                close(connection);
+                return;
+            }
+            // pipelined requests may already be waiting in the read buffer
+            dispatch(connection);
+        }
+
+        private void close(HttpConnection connection) {
+            if (connection == null || !connection.channel.isOpen()) {
+                return;
+            }
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+            bufferPool.release(connection.readBuffer);
+            bufferPool.release(connection.writeBuffer);
+        }
+    }
+
+    /**
+     * Runs on a worker: handle the parsed requests in order
+     */
+    private void handleBatch(HttpConnection connection) {
+        for (int i = 0; i < connection.requestCount; i++) {
+            HttpConnection.Request request = connection.requests[i];
+            long start = System.nanoTime();
+            long parsed = Router.parse(connection.readBuffer, request.pathStart, request.pathEnd);
+            boolean written = handle(connection, request, parsed);
+            metrics.recordRequest(Router.route(parsed), connection.lastStatus, System.nanoTime() - start);
+            if (!written) {
+                connection.closeAfterWrite = true;// the client is gone, nothing more can reach it
+                break;
+            }
+            if (AccessLog.sampled()) {
+                AccessLog.log(connection.method(request), connection.ascii(request.pathStart, request.pathEnd),
+                        connection.lastStatus);
+            }
+            if (!request.keepAlive) {
+                connection.closeAfterWrite = true;
+                break;
+            }
+        }
+        connection.compactReadBuffer();
+    }
+
+    /**
+     * Same routes and answers as the default server
+     *
+     * @return false if the connection failed while writing the response
+     */
+    private boolean handle(HttpConnection connection, HttpConnection.Request request, long parsed) {
+        if (!ConcurrencyLimiter.isLimited(Router.route(parsed))) {
+            return route(connection, request, parsed);
+        }
+        if (!limiter.tryAcquire(ConcurrencyLimiter.priorityOf(Router.route(parsed)))) {
+            return connection.writeResponse(503, BUSY, limiter.retryAfterSeconds());
+        }
+        long start = System.nanoTime();
+        try {
+            return route(connection, request, parsed);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    private boolean route(HttpConnection connection, HttpConnection.Request request, long parsed) {
+        try {
+            int route = Router.route(parsed);
+
+            if (route == Router.SESSION && request.method == HttpConnection.METHOD_GET) {
+                String sessionKey = SessionManager.getInstance().getOrCreateSession(Router.id(parsed));
+                return connection.writeResponse(200, sessionKey.getBytes(StandardCharsets.US_ASCII));
+
+            } else if (route == Router.STAKE && request.method == HttpConnection.METHOD_POST) {
+                String sessionKey = connection.queryParameter(request, "sessionkey");
+                if (sessionKey == null) {
+                    return connection.writeResponse(400, null);
+                }
+                int stake = connection.parseInt(request.bodyStart, request.bodyEnd);
+                int forwarded = forwarded(connection, request);
+                if (forwarded == Cluster.FORGED) {
+                    return connection.writeResponse(401, null);
+                }
+                return connection.writeResponse(stakeHandler.recordStake(Router.id(parsed), sessionKey, stake,
+                        forwarded == Cluster.FORWARDED), null);
+
+            } else if (route == Router.HIGH_STAKES && request.method == HttpConnection.METHOD_GET) {
+                int forwarded = forwarded(connection, request);
+                if (forwarded == Cluster.FORGED) {
+                    return connection.writeResponse(401, null);
+                }
+                byte[] highStakes = highStakesHandler.highStakes(Router.id(parsed), forwarded == Cluster.FORWARDED);
+                return highStakes == null ? connection.writeResponse(Cluster.UNAVAILABLE, null)
+                        : connection.writeResponse(200, highStakes);
+
+            } else if (route == Router.BATCH_STAKES && request.method == HttpConnection.METHOD_POST) {
+                String sessionKey = connection.queryParameter(request, "sessionkey");
+                if (sessionKey == null) {
+                    return connection.writeResponse(400, null);
+                }
+                int forwarded = forwarded(connection, request);
+                if (forwarded == Cluster.FORGED) {
+                    return connection.writeResponse(401, null);
+                }
+                BatchStakeHandler.Result result = batchStakeHandler.recordStakes(sessionKey, connection.readBuffer,
+                        request.bodyStart, request.bodyEnd, forwarded == Cluster.FORWARDED);
+                return connection.writeResponse(result.status(), result.body());
+
+            } else if (route == Router.HIGH_STAKES_STREAM && request.method == HttpConnection.METHOD_GET) {
+                return subscribe(connection, request, Router.id(parsed));
+
+            } else if (route == Router.BAD_ID) {
+                return connection.writeResponse(400, null);
+
+            } else {
+                return connection.writeResponse(404, null);
+            }
+        } catch (NumberFormatException e) {
+            return connection.writeResponse(400, null);
+        } catch (Exception e) {
+            // the input is checked by then, like a journal that failed
+            logger.error("Error:", e);
+            return connection.writeResponse(500, null);
+        }
+    }
+
+    /**
+     * Long poll, or an event stream that keeps this worker and the connection until the
+     * client goes away
+     */
+    private boolean subscribe(HttpConnection connection, HttpConnection.Request request, int betOfferId) {
+        String since = connection.queryParameter(request, HighStakesStreamHandler.SINCE_PARAM);
+        long version = since == null ? 0 : Long.parseLong(since);
+        int refused = streamHandler.refusal(betOfferId);
+        if (refused != 0) {
+            return connection.writeResponse(refused, null);
+        }
+        if (since != null) {
+            HighStakesSubscriptions.Snapshot snapshot = streamHandler.poll(betOfferId, version);
+            return snapshot == null ? connection.writeResponse(Cluster.UNAVAILABLE, null)
+                    : connection.writeResponse(200, snapshot.csv(), HttpConnection.VERSION, snapshot.version());
+        }
+        int status = streamHandler.stream(betOfferId, new HighStakesStreamHandler.EventSink() {
+            @Override
+            public void open() throws IOException {
+                connection.startEventStream();
+            }
+
+            @Override
+            public void send(byte[] event) throws IOException {
+                connection.send(event);
+            }
+        });
+        return status == 200 || connection.writeResponse(status, null);
+    }
+
+    /**
+     * @return Cluster.NOT_FORWARDED, FORWARDED, or FORGED if the signature doesn't verify
+     */
+    private int forwarded(HttpConnection connection, HttpConnection.Request request) {
+        if (request.signatureStart < 0 || !cluster.isClustered()) {
+            return Cluster.NOT_FORWARDED;
+        }
+        byte[] body = new byte[request.bodyEnd - request.bodyStart];
+        connection.readBuffer.get(request.bodyStart, body);
+        return cluster.forwarded(connection.ascii(request.signatureStart, request.signatureEnd),
+                connection.method(request),
+                connection.ascii(request.pathStart, request.queryStart < 0 ? request.pathEnd : request.queryEnd), body);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.betting.replication;
+
+import java.lang.invoke.VarHandle;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.betting.stake.StakeChangeListener;
+
+/**
+ * The stakes applied on the leader, numbered in the order they are published, in a ring
+ * of the last RING_SIZE records.
+ *
+ * Request threads publish concurrently: a sequence number is claimed with one increment,
+ * the slot is marked as being written, the fields are written and the slot is published
+ * with its sequence number. Readers never block writers, they read a slot like a seqlock
+ * (sequence, fields, sequence again) and give up once the writers have lapped them.
+ */
+public class ChangeStream implements StakeChangeListener {
+
+    static final int RING_SIZE = 1 << 18;// power of 2
+
+    private static final int MASK = RING_SIZE - 1;
+
+    // -1 while being written, then the sequence number of the record in the slot
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+
+    private final int[] betOfferIds = new int[RING_SIZE];
+    private final int[] customerIds = new int[RING_SIZE];
+    private final int[] stakes = new int[RING_SIZE];
+    private final long[] timestamps = new long[RING_SIZE];
+
+    // next sequence number to claim
+    private final AtomicLong tail = new AtomicLong();
+
+    // identifies this run of the leader, sequence numbers of another run mean nothing
+    private final long epoch = new SecureRandom().nextLong() | 1;
+
+    public ChangeStream() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    @Override
+    public void onStake(int betOfferId, int customerId, int stake, long timestamp) {
+        long seq = tail.getAndIncrement();
+        int slot = (int) (seq & MASK);
+        published.set(slot, -1);
+        VarHandle.storeStoreFence();
+        betOfferIds[slot] = betOfferId;
+        customerIds[slot] = customerId;
+        stakes[slot] = stake;
+        timestamps[slot] = timestamp;
+        published.set(slot, seq);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Sequence number of the next record, every record below it is published or about to be
+     */
+    public long position() {
+        return tail.get();
+    }
+
+    /**
+     * Whether a reader can start from seq, the records from seq on are still in the ring
+     */
+    public boolean canRead(long seq) {
+        long position = tail.get();
+        return seq >= 0 && seq <= position && position - seq <= RING_SIZE;
+    }
+
+    /**
+     * Pass the published records from seq on to the consumer, at most max of them
+     *
+     * @return the sequence number after the last record passed, -1 if the writers have
+     *         overwritten records not read yet
+     */
+    public long read(long seq, int max, StakeChangeListener consumer) {
+        if (tail.get() - seq > RING_SIZE) {
+            return -1;
+        }
+        long end = seq + max;
+        while (seq < end) {
+            int slot = (int) (seq & MASK);
+            long before = published.get(slot);
+            if (before != seq) {
+                // not published yet, unless the slot already belongs to a later round
+                return before > seq || tail.get() - seq > RING_SIZE ? -1 : seq;
+            }
+            int betOfferId = betOfferIds[slot];
+            int customerId = customerIds[slot];
+            int stake = stakes[slot];
+            long timestamp = timestamps[slot];
+            VarHandle.loadLoadFence();
+            if (published.get(slot) != seq) {
+                return -1;// overwritten while reading
+            }
+            consumer.onStake(betOfferId, customerId, stake, timestamp);
+            seq++;
+        }
+        return seq;
+    }
+}
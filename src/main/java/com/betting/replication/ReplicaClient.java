@@ -0,0 +1,166 @@
+package com.betting.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.stake.StakeManager;
+
+/**
+ * Follower side: applies the stream of the leader to the local StakeManager and
+ * reconnects after RECONNECT_MILLIS when the connection is lost, resuming where it
+ * stopped if the leader still has the records.
+ *
+ * Staleness is measured on the follower clock: every mark carries the position of the
+ * leader when it was sent, the follower is caught up to the arrival time of the last mark
+ * whose position it has applied.
+ */
+public class ReplicaClient {
+
+    private static Logger logger = LoggerFactory.getLogger(ReplicaClient.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    // without a mark for this long the leader is considered gone
+    private static final int READ_TIMEOUT_MILLIS = (int) (50 * ReplicationServer.HEARTBEAT_MILLIS);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // marks not caught up with yet, power of 2
+    private static final int PENDING_MARKS = 1024;
+
+    // host:port, for the logs
+    private final String leader;
+
+    private final String host;
+
+    private final int port;
+
+    private final byte[] secret;
+
+    private final StakeManager stakeManager;
+
+    private final Replication replication = Replication.getInstance();
+
+    // only touched by the client thread
+    private long epoch = 0;// 0 while the local stakes are not a consistent copy
+    private long seq = -1;
+    private int failures = 0;// connection attempts failed in a row
+    private final long[] pendingHeads = new long[PENDING_MARKS];
+    private final long[] pendingArrivals = new long[PENDING_MARKS];
+    private int pendingFirst = 0;
+    private int pendingCount = 0;
+
+    /**
+     * @param leader host:port of the replication port of the leader
+     * @param secret the REPLICATION_SECRET of the leader
+     */
+    public ReplicaClient(String leader, byte[] secret, StakeManager stakeManager) {
+        int colon = leader.lastIndexOf(':');
+        this.leader = leader;
+        this.host = leader.substring(0, colon);
+        this.port = Integer.parseInt(leader.substring(colon + 1));
+        this.secret = secret;
+        this.stakeManager = stakeManager;
+    }
+
+    public void start() {
+        Thread.ofPlatform().daemon().name("replica-client").start(this::run);
+    }
+
+    private void run() {
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                failures = 0;
+                follow(socket);
+            } catch (IOException e) {
+                // once per outage and then every minute
+                if (failures++ % 60 == 0) {
+                    logger.warn("Replication from {} interrupted: {}", leader, e.toString());
+                }
+            } catch (RuntimeException e) {
+                logger.error("Replication from " + leader + " failed", e);
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+        if (in.readInt() != ReplicationServer.MAGIC) {
+            throw new IOException("not a replication port");
+        }
+        long leaderEpoch = in.readLong();
+        byte[] nonce = new byte[ReplicationServer.NONCE_BYTES];
+        in.readFully(nonce);
+        out.write(ReplicationServer.proof(secret, nonce));
+        out.writeLong(leaderEpoch == epoch ? seq : -1);
+        out.flush();
+        logger.info("Following {} from {}", leader, leaderEpoch == epoch ? seq : "a full copy");
+
+        boolean copying = false;
+        while (true) {
+            byte type = in.readByte();
+            if (type == ReplicationServer.STAKE) {
+                stakeManager.applyReplicated(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+                if (!copying) {
+                    seq++;// a resumed stream must not apply a record twice
+                }
+            } else if (type == ReplicationServer.MARK) {
+                onMark(in.readLong(), in.readLong());
+                if (copying) {
+                    copying = false;
+                    epoch = leaderEpoch;
+                }
+            } else if (type == ReplicationServer.RESET) {
+                copying = true;
+                epoch = 0;
+                pendingCount = 0;
+                // stale first: reads answer 503 for the whole copy, never an emptied board
+                replication.onReset();
+                stakeManager.clear();
+            } else {
+                throw new IOException("unknown record type " + type);
+            }
+        }
+    }
+
+    private void onMark(long sent, long head) {
+        long now = System.nanoTime();
+        seq = sent;
+        if (pendingCount == PENDING_MARKS) {
+            // the oldest is dropped, staleness is overstated until the next one is caught up
+            pendingFirst = (pendingFirst + 1) & (PENDING_MARKS - 1);
+            pendingCount--;
+        }
+        int last = (pendingFirst + pendingCount) & (PENDING_MARKS - 1);
+        pendingHeads[last] = head;
+        pendingArrivals[last] = now;
+        pendingCount++;
+
+        // the leader had head records when the mark left, having them makes us current as of its arrival
+        while (pendingCount > 0 && pendingHeads[pendingFirst] <= sent) {
+            replication.onCaughtUp(pendingArrivals[pendingFirst]);
+            pendingFirst = (pendingFirst + 1) & (PENDING_MARKS - 1);
+            pendingCount--;
+        }
+        replication.onProgress(sent, head);
+    }
+}
@@ -0,0 +1,110 @@
+package com.betting.replication;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.betting.Application;
+
+/**
+ * Role of this instance in the replication and its state, for the handlers and the metrics.
+ *
+ * A leader (-DREPLICATION_PORT) streams its stakes to followers. A follower (-DREPLICA_OF)
+ * applies them, rejects writes and answers /highstakes only while it is at most
+ * REPLICA_MAX_STALENESS_MS behind the leader.
+ */
+public class Replication {
+
+    // Singleton pattern, configured by Application before the first request
+    private static Replication instance = new Replication(Application.REPLICATION_PORT > 0,
+            Application.REPLICA_OF != null, Application.REPLICA_MAX_STALENESS_MS);
+
+    private final boolean leader;
+
+    private final boolean replica;
+
+    private final long maxStalenessNanos;
+
+    // leader: followers connected
+    private final AtomicInteger followers = new AtomicInteger();
+
+    // follower: written by the replica client thread only
+    private volatile long appliedSeq = -1;
+    private volatile long leaderSeq = -1;
+    // when the follower last had everything the leader had, 0 while not in sync
+    private volatile long caughtUpNanos = 0;
+
+    Replication(boolean leader, boolean replica, long maxStalenessMillis) {
+        this.leader = leader;
+        this.replica = replica;
+        this.maxStalenessNanos = maxStalenessMillis * 1_000_000L;
+    }
+
+    public static Replication getInstance() {
+        return instance;
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * A follower takes no writes of its own
+     */
+    public boolean isReplica() {
+        return replica;
+    }
+
+    /**
+     * A follower too far behind the leader (or not connected yet) must not answer reads
+     */
+    public boolean isStale() {
+        return replica && (caughtUpNanos == 0 || System.nanoTime() - caughtUpNanos > maxStalenessNanos);
+    }
+
+    void followerConnected() {
+        followers.incrementAndGet();
+    }
+
+    void followerDisconnected() {
+        followers.decrementAndGet();
+    }
+
+    public int getFollowers() {
+        return followers.get();
+    }
+
+    /**
+     * @param applied    records of the leader applied
+     * @param leaderHead records the leader had when it sent the last mark
+     */
+    void onProgress(long applied, long leaderHead) {
+        appliedSeq = applied;
+        leaderSeq = leaderHead;
+    }
+
+    void onCaughtUp(long nanos) {
+        caughtUpNanos = nanos;
+    }
+
+    void onReset() {
+        caughtUpNanos = 0;
+        appliedSeq = -1;
+        leaderSeq = -1;
+    }
+
+    /**
+     * Records the leader had and this follower hasn't applied, -1 while not in sync
+     */
+    public long getLagRecords() {
+        long applied = appliedSeq;
+        long head = leaderSeq;
+        return applied < 0 || head < 0 ? -1 : Math.max(0, head - applied);
+    }
+
+    /**
+     * Time since this follower last had all the stakes of the leader, -1 while not in sync
+     */
+    public double getStalenessSeconds() {
+        long caughtUp = caughtUpNanos;
+        return caughtUp == 0 ? -1 : (System.nanoTime() - caughtUp) / 1e9;
+    }
+}
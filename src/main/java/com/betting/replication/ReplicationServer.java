@@ -0,0 +1,236 @@
+package com.betting.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.stake.StakeChangeListener;
+import com.betting.stake.StakeManager;
+
+/**
+ * Leader side: streams the ChangeStream to the followers, one virtual thread each.
+ *
+ * The leader says hello with its epoch and a random nonce, the follower answers with
+ * HMAC-SHA256 of the nonce under the shared REPLICATION_SECRET and the sequence number to
+ * resume from (-1 if it has nothing of this epoch); a wrong proof closes the connection
+ * before anything is sent. If the sequence is still in the ring the
+ * stream continues from there, otherwise the follower gets a reset, a copy of all the
+ * stakes and the position the copy was taken at. After each batch, and at least every
+ * HEARTBEAT_MILLIS, a mark tells the follower how far it is and how far the leader is.
+ *
+ * A follower that falls a whole ring behind is disconnected, it gets a copy on reconnect.
+ */
+public class ReplicationServer {
+
+    private static Logger logger = LoggerFactory.getLogger(ReplicationServer.class);
+
+    static final int MAGIC = 0x53544B52;// "STKR"
+
+    // record types
+    static final byte STAKE = 1;
+    static final byte MARK = 2;
+    static final byte RESET = 3;
+
+    static final long HEARTBEAT_MILLIS = 100;
+
+    static final int NONCE_BYTES = 16;
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    // a connection that doesn't prove the secret in time is dropped
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private static final int BATCH = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String bindAddress;
+
+    private final int port;
+
+    private final byte[] secret;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ChangeStream stream;
+
+    private final StakeManager stakeManager;
+
+    private final Replication replication = Replication.getInstance();
+
+    private ServerSocket serverSocket;
+
+    /**
+     * @param bindAddress interface to listen on, the followers must reach it
+     * @param secret      shared with the followers, they prove they know it
+     */
+    public ReplicationServer(String bindAddress, int port, byte[] secret, ChangeStream stream,
+            StakeManager stakeManager) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret;
+        this.stream = stream;
+        this.stakeManager = stakeManager;
+        proof(secret, new byte[NONCE_BYTES]);// fail at startup if the algorithm is missing
+    }
+
+    /**
+     * What a follower answers to the nonce of the leader
+     */
+    static byte[] proof(byte[] secret, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret, ALGORITHM));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create " + ALGORITHM, e);
+        }
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        Thread.ofPlatform().daemon().name("replication-accept").start(this::acceptLoop);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("replication-" + socket.getRemoteSocketAddress()).start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.error("Replication accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String follower = String.valueOf(socket.getRemoteSocketAddress());
+        boolean counted = false;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Sender sender = new Sender(out);
+
+            byte[] nonce = new byte[NONCE_BYTES];
+            random.nextBytes(nonce);
+            out.writeInt(MAGIC);
+            out.writeLong(stream.epoch());
+            out.write(nonce);
+            out.flush();
+
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            byte[] expected = proof(secret, nonce);
+            byte[] proof = new byte[expected.length];
+            in.readFully(proof);
+            // constant time, a mismatch position must not leak
+            if (!MessageDigest.isEqual(proof, expected)) {
+                logger.warn("Follower {} rejected: wrong replication secret", follower);
+                return;
+            }
+            long seq = in.readLong();
+            socket.setSoTimeout(0);
+
+            if (stream.canRead(seq)) {
+                logger.info("Follower {} resumes at {}", follower, seq);
+            } else {
+                long start = System.nanoTime();
+                out.writeByte(RESET);
+                seq = stakeManager.copyStakes(stream::position, sender);
+                logger.info("Follower {} copied up to {} in {} ms", follower, seq, (System.nanoTime() - start) / 1_000_000);
+            }
+            mark(out, seq);
+            replication.followerConnected();
+            counted = true;
+
+            long lastMark = System.currentTimeMillis();
+            while (true) {
+                long next = stream.read(seq, BATCH, sender);
+                if (next < 0) {
+                    logger.warn("Follower {} fell more than {} stakes behind, disconnected", follower,
+                            ChangeStream.RING_SIZE);
+                    return;
+                }
+                long sent = next - seq;
+                long now = System.currentTimeMillis();
+                if (sent > 0 || now - lastMark >= HEARTBEAT_MILLIS) {
+                    seq = next;
+                    mark(out, seq);
+                    lastMark = now;
+                }
+                if (sent < BATCH) {
+                    Thread.sleep(1);// idle or a partial batch, let more stakes come
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.info("Follower {} disconnected: {}", follower, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (counted) {
+                replication.followerDisconnected();
+            }
+        }
+    }
+
+    /**
+     * Everything below seq is sent, the leader is at its current position
+     */
+    private void mark(DataOutputStream out, long seq) throws IOException {
+        out.writeByte(MARK);
+        out.writeLong(seq);
+        out.writeLong(stream.position());
+        out.flush();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the replication socket", e);
+        }
+    }
+
+    /**
+     * Writes stakes to a follower, IOExceptions come out unchecked through the listener
+     */
+    private static class Sender implements StakeChangeListener {
+
+        private final DataOutputStream out;
+
+        Sender(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onStake(int betOfferId, int customerId, int stake, long timestamp) {
+            try {
+                out.writeByte(STAKE);
+                out.writeInt(betOfferId);
+                out.writeInt(customerId);
+                out.writeInt(stake);
+                out.writeLong(timestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.betting.session;
+
+/**
+ * Wall clock in milliseconds, refreshed every RESOLUTION_MILLIS by a daemon thread.
+ *
+ * Session expiry is checked on every lookup, reading a volatile is much cheaper than
+ * System.currentTimeMillis() and a few milliseconds don't matter for a timeout in minutes.
+ */
+final class CoarseClock {
+
+    static final long RESOLUTION_MILLIS = 10;
+
+    private static volatile long now = System.currentTimeMillis();
+
+    static {
+        // a platform thread, so the clock keeps ticking while all carriers are busy
+        Thread.ofPlatform().daemon().name("coarse-clock").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(RESOLUTION_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                now = System.currentTimeMillis();
+            }
+        });
+    }
+
+    private CoarseClock() {
+    }
+
+    static long millis() {
+        return now;
+    }
+}
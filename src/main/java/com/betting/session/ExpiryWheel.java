@@ -0,0 +1,117 @@
+package com.betting.session;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashed timing wheel of session slots by expiration tick.
+ *
+ * A new session puts its slot index in the bucket of the tick it expires in, and every
+ * tick only the bucket that came due is visited, so expired sessions are released in
+ * O(expired) a tick after they expire instead of by a scan over all slots once a minute.
+ *
+ * Entries are never removed: a bucket may hold the slot of a session which has been
+ * replaced since, the visit just skips it. Expiration times further out than the wheel
+ * (SIZE ticks) wait for the next round in the same bucket.
+ */
+class ExpiryWheel {
+
+    static final long TICK_MILLIS = 1000;
+
+    private static final int SIZE = 4096;// power of 2, about 68 minutes of 1 second ticks
+
+    private static final int MASK = SIZE - 1;
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private final Bucket[] buckets = new Bucket[SIZE];
+
+    // the last tick visited, only moved by the thread calling advance
+    private long currentTick;
+
+    private static final class Bucket {
+        final ReentrantLock lock = new ReentrantLock();
+        int[] slots = new int[INITIAL_BUCKET_CAPACITY];
+        int size = 0;
+    }
+
+    /**
+     * Visits the slots of a due bucket
+     */
+    interface SlotVisitor {
+        void visit(int slot, long tick);
+    }
+
+    ExpiryWheel(long nowMillis) {
+        for (int i = 0; i < SIZE; i++) {
+            buckets[i] = new Bucket();
+        }
+        currentTick = tickOf(nowMillis) - 1;
+    }
+
+    /**
+     * The first tick at which a session expiring at expirationTime is expired for sure
+     */
+    static long tickOf(long expirationTime) {
+        return expirationTime / TICK_MILLIS + 1;
+    }
+
+    static boolean sameBucket(long tick, long otherTick) {
+        return (tick & MASK) == (otherTick & MASK);
+    }
+
+    void schedule(int slot, long tick) {
+        Bucket bucket = buckets[(int) (tick & MASK)];
+        bucket.lock.lock();
+        try {
+            if (bucket.size == bucket.slots.length) {
+                int[] grown = new int[bucket.size * 2];
+                System.arraycopy(bucket.slots, 0, grown, 0, bucket.size);
+                bucket.slots = grown;
+            }
+            bucket.slots[bucket.size++] = slot;
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    /**
+     * Visit the buckets of all ticks up to nowMillis not visited yet, single threaded
+     *
+     * @return number of slots visited
+     */
+    int advance(long nowMillis, SlotVisitor visitor) {
+        long target = nowMillis / TICK_MILLIS;
+        int visited = 0;
+        // after a long stall one round covers every bucket
+        long from = Math.max(currentTick + 1, target - MASK);
+        for (long tick = from; tick <= target; tick++) {
+            visited += visit(tick, visitor);
+        }
+        currentTick = Math.max(currentTick, target);
+        return visited;
+    }
+
+    private int visit(long tick, SlotVisitor visitor) {
+        Bucket bucket = buckets[(int) (tick & MASK)];
+        int[] slots;
+        int size;
+        // take the entries out, a session scheduled meanwhile starts a new array
+        bucket.lock.lock();
+        try {
+            size = bucket.size;
+            if (size == 0) {
+                return 0;
+            }
+            slots = bucket.slots;
+            bucket.slots = new int[INITIAL_BUCKET_CAPACITY];
+            bucket.size = 0;
+        } finally {
+            bucket.lock.unlock();
+        }
+
+        for (int i = 0; i < size; i++) {
+            visitor.visit(slots[i], tick);
+        }
+        return size;
+    }
+}
@@ -6,22 +6,24 @@ import com.betting.Application;
 
 public class Session {
     private final String key;
+    // generation of the slot + random part, also encoded in the key
+    private final long stamp;
     private final long expirationTime;
     private int customerId;
 
-    Session(String key) {
+    Session(String key, long stamp, int customerId) {
         this.key = key;
-        this.expirationTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(Application.SESSION_TIMEOUT_MINUTES);
-    }
-
-    Session(String key, int customerId) {
-        this.key = key;
-        this.expirationTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(Application.SESSION_TIMEOUT_MINUTES);
+        this.stamp = stamp;
+        this.expirationTime = CoarseClock.millis() + TimeUnit.MINUTES.toMillis(Application.SESSION_TIMEOUT_MINUTES);
         this.customerId = customerId;
     }
 
     boolean isExpired() {
-        return System.currentTimeMillis() > expirationTime;
+        return CoarseClock.millis() > expirationTime;
+    }
+
+    long getExpirationTime() {
+        return expirationTime;
     }
 
     public String getKey() {
@@ -32,5 +34,9 @@ public class Session {
         return customerId;
     }
 
+    long getStamp() {
+        return stamp;
+    }
+
     
 }
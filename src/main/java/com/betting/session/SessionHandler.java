@@ -3,6 +3,7 @@ package com.betting.session;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import com.betting.Router;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
@@ -16,30 +17,32 @@ public class SessionHandler implements HttpHandler{
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        if (!"GET".equals(exchange.getRequestMethod())) {
-            exchange.sendResponseHeaders(405, 0);
+        long parsed = Router.parse(exchange.getRequestURI().getRawPath());
+        if (Router.route(parsed) != Router.SESSION) {
+            exchange.sendResponseHeaders(400, 0);
             exchange.close();
             return;
         }
+        handle(exchange, Router.id(parsed));
+    }
 
-        String path = exchange.getRequestURI().getPath();
-        String[] parts = path.split("/");
-        if (parts.length < 3) {
-            exchange.sendResponseHeaders(400, 0);
+    /**
+     * Handle a request already routed by Router, customerId is parsed from the path
+     */
+    public void handle(HttpExchange exchange, int customerId) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, 0);
             exchange.close();
             return;
         }
 
         try {
-            int customerId = Integer.parseInt(parts[1]);
             String sessionKey = sessionManager.getOrCreateSession(customerId);
             
             exchange.sendResponseHeaders(200, sessionKey.length());
             try (OutputStream os = exchange.getResponseBody()) {
                 os.write(sessionKey.getBytes());
             }
-        } catch (NumberFormatException e) {
-            exchange.sendResponseHeaders(400, 0);
         } finally {
             exchange.close();
         }
@@ -4,47 +4,84 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.Application;
+
 public class SessionManager {
-    
+
+    private static Logger logger = LoggerFactory.getLogger(SessionManager.class);
+
     private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
 
     private SessionStore sessionStore = SessionStore.getInstance();
 
+    // self validating keys instead of the store, null unless -DSESSION_MODE=token
+    private final SessionTokens tokens;
+
     // Singleton pattern
     private static final SessionManager instance = new SessionManager();
 
     private SessionManager() {
-        // clean expired sessions every minute to reduce memory consumption
-        cleaner.scheduleAtFixedRate(this::cleanExpiredSessions, 1, 1, TimeUnit.MINUTES);
+        if (Application.SESSION_TOKENS) {
+            tokens = new SessionTokens(Application.SESSION_TOKEN_SECRET, Application.SESSION_TIMEOUT_MINUTES);
+            return;// nothing stored, nothing to expire
+        }
+        tokens = null;
+        // release expired sessions tick by tick, so memory comes back steadily
+        cleaner.scheduleAtFixedRate(this::expireDueSessions, ExpiryWheel.TICK_MILLIS, ExpiryWheel.TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
     }
 
     public static SessionManager getInstance() {
         return instance;
     }
 
+    /**
+     * In token mode a new token on every call, each one valid until its own expiry
+     */
     public String getOrCreateSession(int customerId) {
+        if (tokens != null) {
+            return tokens.issue(customerId);
+        }
         Session session = sessionStore.getOrCreateSession(customerId);
 
         return session.getKey();
     }
 
     public boolean isValidSession(String sessionKey) {
-        Session session = this.sessionStore.getSession(sessionKey);
-
-        return session != null && !session.isExpired();
+        return customerIdOf(sessionKey) != -1;
     }
 
     public int getCustomerIdBySession(String sessionKey) {
+        return customerIdOf(sessionKey);
+    }
+
+    /**
+     * Validate the key and resolve its customer at once: one MAC check in token mode,
+     * one slot lookup otherwise
+     *
+     * @return -1 if the session is invalid or expired
+     */
+    public int customerIdOf(String sessionKey) {
+        if (tokens != null) {
+            return tokens.customerIdOf(sessionKey);
+        }
         Session session = this.sessionStore.getSession(sessionKey);
-        if (session == null) {
+        if (session == null || session.isExpired()) {
             return -1;
-        }else{
-            return session.getCustomerId();
         }
+        return session.getCustomerId();
     }
 
-    private void cleanExpiredSessions() {
-        this.sessionStore.cleanExpiredSessions();
+    private void expireDueSessions() {
+        try {
+            this.sessionStore.expireDue();
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule
+            logger.error("Failed to expire sessions", e);
+        }
     }
 
 }
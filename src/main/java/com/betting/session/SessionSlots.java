@@ -0,0 +1,144 @@
+package com.betting.session;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free slot table of sessions, the slot index is carried by the session key.
+ *
+ * Slots live in fixed size chunks that are never moved, so growing the table only appends
+ * a chunk to a small copy-on-write directory instead of resizing one big array under a
+ * lock. Released slots are recycled through a lock free stack (Treiber stack) whose links
+ * are kept in the chunks themselves, no node is allocated per free slot.
+ *
+ * Every slot has a generation which is bumped when the slot is released, the keys handed
+ * out for a slot are stamped with its generation, so a recycled slot never matches a key
+ * of a previous session.
+ */
+class SessionSlots {
+
+    private static final int CHUNK_BITS = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final class Chunk {
+        final AtomicReferenceArray<Session> sessions = new AtomicReferenceArray<>(CHUNK_SIZE);
+        // link to the next free slot + 1 while the slot is on the free stack
+        final AtomicIntegerArray nextFree = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray generations = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    private final AtomicReference<Chunk[]> directory = new AtomicReference<>(new Chunk[0]);
+
+    // slots below the high water mark have been handed out at least once
+    private final AtomicInteger highWater = new AtomicInteger();
+
+    // top of the free stack: high 32 bits are a tag against ABA, low 32 bits are slot + 1 (0 = empty)
+    private final AtomicLong freeTop = new AtomicLong();
+
+    /**
+     * Claim a free slot, recycled slots first
+     */
+    int claim() {
+        int slot = popFree();
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = highWater.getAndIncrement();
+        if (slot < 0) {
+            highWater.decrementAndGet();
+            throw new IllegalStateException("Session slots exhausted");
+        }
+        ensureChunk(slot >>> CHUNK_BITS);
+        return slot;
+    }
+
+    /**
+     * Give back a slot which has been cleared, the generation of the slot is bumped so the
+     * keys of the previous session stop matching
+     */
+    void release(int slot) {
+        Chunk chunk = chunk(slot);
+        chunk.generations.incrementAndGet(slot & CHUNK_MASK);
+        while (true) {
+            long top = freeTop.get();
+            chunk.nextFree.set(slot & CHUNK_MASK, (int) top);
+            long newTop = ((top >>> 32) + 1) << 32 | (slot + 1L);
+            if (freeTop.compareAndSet(top, newTop)) {
+                return;
+            }
+        }
+    }
+
+    private int popFree() {
+        while (true) {
+            long top = freeTop.get();
+            int slot = (int) top - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            // may be stale if the slot was popped and pushed again meanwhile, then the tag differs
+            int next = chunk(slot).nextFree.get(slot & CHUNK_MASK);
+            long newTop = ((top >>> 32) + 1) << 32 | (next & 0xFFFFFFFFL);
+            if (freeTop.compareAndSet(top, newTop)) {
+                return slot;
+            }
+        }
+    }
+
+    int generation(int slot) {
+        return chunk(slot).generations.get(slot & CHUNK_MASK);
+    }
+
+    Session get(int slot) {
+        if (slot < 0) {
+            return null;
+        }
+        Chunk[] chunks = directory.get();
+        int index = slot >>> CHUNK_BITS;
+        if (index >= chunks.length || chunks[index] == null) {
+            return null;
+        }
+        return chunks[index].sessions.get(slot & CHUNK_MASK);
+    }
+
+    void set(int slot, Session session) {
+        chunk(slot).sessions.set(slot & CHUNK_MASK, session);
+    }
+
+    boolean compareAndSet(int slot, Session expected, Session session) {
+        return chunk(slot).sessions.compareAndSet(slot & CHUNK_MASK, expected, session);
+    }
+
+    /**
+     * Number of slots handed out so far, the upper bound for a scan
+     */
+    int highWater() {
+        return Math.min(highWater.get(), directory.get().length << CHUNK_BITS);
+    }
+
+    private Chunk chunk(int slot) {
+        return directory.get()[slot >>> CHUNK_BITS];
+    }
+
+    private void ensureChunk(int index) {
+        while (true) {
+            Chunk[] chunks = directory.get();
+            if (index < chunks.length && chunks[index] != null) {
+                return;
+            }
+            // copy-on-write of the directory only, chunks are shared
+            Chunk[] grown = Arrays.copyOf(chunks, Math.max(chunks.length, index + 1));
+            grown[index] = new Chunk();
+            if (directory.compareAndSet(chunks, grown)) {
+                return;
+            }
+        }
+    }
+}
@@ -1,29 +1,53 @@
 package com.betting.session;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.betting.collection.IntIntConcurrentMap;
+import com.betting.metrics.Metrics;
+
 /**
  * we store the index of the session in sessionkey to reduce memory consumption
+ * Sessions live in lock free slots, expired slots are recycled through a free list
+ *
+ * Session key: 16 hex digits of the stamp (slot generation + random part) - slot index.
+ * Validating a key is one slot read and one compare of the stamp.
+ *
+ * Expiry is read from a coarse cached clock, and a timing wheel releases the sessions
+ * tick by tick as they expire.
  */
 public class SessionStore {
 
    private static Logger logger = LoggerFactory.getLogger(SessionStore.class);
 
-    private static int ORIGINAL_SESSION_SIZE = 10;
-
-    private ReentrantLock sessionEditLock = new ReentrantLock();
-
     // Singleton pattern
     private static SessionStore instance = new SessionStore();
 
-    private List<Session> sessions = new ArrayList<Session>(ORIGINAL_SESSION_SIZE);
+    private final SessionSlots sessions = new SessionSlots();
+
+    private static final int NO_SESSION = -1;
+
+    private static final int RANDOM_BITS = 48;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    // customerId -> index of the session in sessions, so a lookup doesn't scan the slots
+    private final IntIntConcurrentMap customerIndex = new IntIntConcurrentMap(NO_SESSION);
+
+    // slot indexes by expiration tick
+    private final ExpiryWheel wheel = new ExpiryWheel(CoarseClock.millis());
+
+    private static final int EXPIRED_BUFFER_CAPACITY = 16;
+
+    // the wheel and the full scan release one at a time, expiredCustomers is theirs
+    private final ReentrantLock expiryLock = new ReentrantLock();
+    private int[] expiredCustomers = new int[EXPIRED_BUFFER_CAPACITY];
+    private int expiredCount = 0;
 
     private SessionStore() {
     }
@@ -34,89 +58,186 @@ public class SessionStore {
 
     public Session getOrCreateSession(int customerId) {
 
-        Optional<Session> session4Customer = sessions.stream().parallel()
-                .filter(session -> session != null && session.getCustomerId() == customerId && !session.isExpired())
-                .findFirst();
+        while (true) {
+            Session session = liveSession(customerId, customerIndex.get(customerId));
+            if (session != null) {
+                return session;
+            }
 
-        if (session4Customer.isPresent()) {
-            return session4Customer.get();
+            // single flight: concurrent calls of the same customer are serialized by the index,
+            // only the first one creates the session, the others find it
+            customerIndex.compute(customerId, (k, current) -> {
+                if (liveSession(customerId, current) != null) {
+                    return current;
+                }
+                // the customer's own expired session can be recycled right away
+                releaseIfExpired(current);
+                return createSession(customerId);
+            });
         }
+    }
 
-        sessionEditLock.lock();
-        try {
-            int index = getFistFreeIndex();
-            Session newSession = new Session(generateSessionKey(index), customerId);
-            if (index == sessions.size()) {
-                sessions.add(newSession);
-            } else {
-                sessions.set(index, newSession);
-            }
-            return newSession;
-        } finally {
-            sessionEditLock.unlock();
+    /**
+     * The session at index if it belongs to the customer and is not expired
+     */
+    private Session liveSession(int customerId, int index) {
+        if (index == NO_SESSION) {
+            return null;
         }
+        Session session = sessions.get(index);
+        if (session == null || session.getCustomerId() != customerId || session.isExpired()) {
+            return null;
+        }
+        return session;
+    }
+
+    private int createSession(int customerId) {
+        // no global lock, the slot is claimed from the free list or the end of the table
+        int index = sessions.claim();
+        long stamp = newStamp(sessions.generation(index));
+        Session session = new Session(generateSessionKey(stamp, index), stamp, customerId);
+        sessions.set(index, session);
+        wheel.schedule(index, ExpiryWheel.tickOf(session.getExpirationTime()));
+        return index;
+    }
+
+    /**
+     * Clear the slot if its session is expired and give it back to the free list
+     *
+     * @return the customer of the released session or NO_SESSION
+     */
+    private int releaseIfExpired(int index) {
+        Session session = sessions.get(index);
+        // only the thread winning the CAS releases the slot and bumps its generation
+        if (session != null && session.isExpired() && sessions.compareAndSet(index, session, null)) {
+            sessions.release(index);
+            return session.getCustomerId();
+        }
+        return NO_SESSION;
     }
 
     public Session getSession(String sessionKey) {
-        String[] parts = sessionKey.split("-");
+        int dash = sessionKey.lastIndexOf('-');
 
-        if (parts.length == 2) {
+        if (dash > 0 && dash < sessionKey.length() - 1) {
             try {
-                int index = Integer.parseInt(parts[1]);
-                if (index < sessions.size()) {
-                    Session session = sessions.get(index);
-                    if (session != null && !session.isExpired()) {
-                        return session;
-                    } else {
-                        logger.error("Session expired or is not exsited: {}", sessionKey);
-                    }
+                long stamp = Long.parseUnsignedLong(sessionKey, 0, dash, 16);
+                int index = Integer.parseInt(sessionKey, dash + 1, sessionKey.length(), 10);
+                Session session = sessions.get(index);
+                // a recycled slot has another generation, so another stamp
+                if (session != null && session.getStamp() == stamp && !session.isExpired()) {
+                    return session;
+                } else if (logger.isDebugEnabled()) {
+                    logger.debug("Session expired or is not exsited: {}", sessionKey);
                 }
             } catch (NumberFormatException e) {
-                logger.error("Invalid session key: {}", sessionKey);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Invalid session key: {}", sessionKey);
+                }
             }
         }
         return null;
     }
 
-    private String generateSessionKey(int index) {
-        // we store the index of the session in sessionkey to facilitate the search
-        return UUID.randomUUID().toString().replace("-", "").substring(0, 12) + "-" + String.valueOf(index);
+    private long newStamp(int generation) {
+        return ((long) generation << RANDOM_BITS) | (random.nextLong() >>> (64 - RANDOM_BITS));
     }
 
-    private int getFistFreeIndex() {
-        for (int i = 0; i < sessions.size(); i++) {
-            if (sessions.get(i) == null || sessions.get(i).isExpired()) {
-                return i;
+    private String generateSessionKey(long stamp, int index) {
+        // we store the stamp and the index of the session in sessionkey to facilitate the search
+        return HexFormat.of().toHexDigits(stamp) + "-" + index;
+    }
+
+    /**
+     * Release the sessions which expired since the last call, called every wheel tick
+     * Only the due buckets of the wheel are visited, not the slots of live sessions
+     */
+    public void expireDue() {
+        expiryLock.lock();
+        try {
+            long start = System.nanoTime();
+            int visited = wheel.advance(CoarseClock.millis(), this::expireSlot);
+            if (visited == 0) {
+                return;
+            }
+            int expired = forgetExpiredCustomers();
+            Metrics.getInstance().recordSessionCleanup(System.nanoTime() - start, expired);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Expire due sessions, visited: {}, expired: {}", visited, expired);
             }
+        } finally {
+            expiryLock.unlock();
+        }
+    }
+
+    private void expireSlot(int index, long tick) {
+        Session session = sessions.get(index);
+        if (session == null) {
+            return;// released already
+        }
+        if (session.isExpired()) {
+            addExpired(releaseIfExpired(index));
+            return;
+        }
+        long due = ExpiryWheel.tickOf(session.getExpirationTime());
+        if (due > tick && ExpiryWheel.sameBucket(due, tick)) {
+            wheel.schedule(index, due);// expires in a later round of the wheel
         }
-        return sessions.size();
+        // otherwise the slot holds a newer session, scheduled on its own
     }
 
     /**
-     * Remove some expired sessions from the list to reduce memory consumption
-     * It's a heavy operation and will lock the list
+     * Release expired sessions to reduce memory consumption
+     * The slots are kept in place, as live session keys carry their index, and recycled
+     * through the free list with a new generation, so no live key is ever invalidated
+     *
+     * A full scan of the slots, the wheel releases sessions as they expire; only needed
+     * when memory runs short
      */
     public void cleanExpiredSessions() {
-        sessionEditLock.lock();
+        expiryLock.lock();
         try {
-            if (sessions.isEmpty() && sessions.size() <= ORIGINAL_SESSION_SIZE) {
-                return;
-            }
+            long start = System.nanoTime();
+            int highWater = sessions.highWater();
 
-            // if more than half of the sessions are expired, we clean some of them .
-            // we keep half of sessions.size() "free" session to reduce the cost of resizing the list
-            int originalSize = sessions.size();
-            int keepFreeCount = sessions.size() / 2;
-            
-            sessions.stream().parallel().filter(session -> session == null || session.isExpired())
-                    .skip(keepFreeCount)
-                    .forEach(session -> {
-                        sessions.remove(session);
-                    });
-            logger.info("Clean expired sessions, original size: {}, current size: {}", originalSize, sessions.size());
+            for (int i = 0; i < highWater; i++) {
+                addExpired(releaseIfExpired(i));
+            }
 
+            int expired = forgetExpiredCustomers();
+            Metrics.getInstance().recordSessionCleanup(System.nanoTime() - start, expired);
+            logger.info("Clean expired sessions, slots: {}, expired: {}", highWater, expired);
         } finally {
-            sessionEditLock.unlock();
+            expiryLock.unlock();
+        }
+    }
+
+    private void addExpired(int customerId) {
+        if (customerId == NO_SESSION) {
+            return;
+        }
+        if (expiredCount == expiredCustomers.length) {
+            expiredCustomers = Arrays.copyOf(expiredCustomers, expiredCount * 2);
+        }
+        expiredCustomers[expiredCount++] = customerId;
+    }
+
+    /**
+     * Drop the customers of the released sessions from the index, unless they got a new one
+     *
+     * @return number of released sessions
+     */
+    private int forgetExpiredCustomers() {
+        int count = expiredCount;
+        for (int i = 0; i < count; i++) {
+            int customerId = expiredCustomers[i];
+            customerIndex.compute(customerId,
+                    (k, index) -> liveSession(customerId, index) != null ? index : NO_SESSION);
+        }
+        expiredCount = 0;
+        if (expiredCustomers.length > EXPIRED_BUFFER_CAPACITY) {
+            expiredCustomers = new int[EXPIRED_BUFFER_CAPACITY];// don't keep a burst's buffer
         }
+        return count;
     }
 }
@@ -0,0 +1,96 @@
+package com.betting.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Self validating session keys: {@code <customerId>.<expiry seconds>.<mac>}, the mac being
+ * the first 128 bits of HMAC-SHA256 over the part before it, in hex.
+ *
+ * Nothing is stored, a key is checked by recomputing its mac, so any instance sharing the
+ * secret accepts it and no session state is held for the customers.
+ *
+ * Mac instances are not thread safe and costly to create, they are pooled rather than
+ * kept per thread, since every request runs on a new virtual thread.
+ */
+class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_BYTES = 16;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final SecretKeySpec secret;
+
+    private final long timeoutSeconds;
+
+    private final ConcurrentLinkedQueue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+    SessionTokens(byte[] secret, int timeoutMinutes) {
+        this.secret = new SecretKeySpec(secret, ALGORITHM);
+        this.timeoutSeconds = TimeUnit.MINUTES.toSeconds(timeoutMinutes);
+        macs.offer(newMac());// fail at startup if the algorithm is missing
+    }
+
+    String issue(int customerId) {
+        String payload = customerId + "." + (CoarseClock.millis() / 1000 + timeoutSeconds);
+        return payload + "." + HEX.formatHex(mac(payload.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * @return the customer of a valid, unexpired token, -1 otherwise
+     */
+    int customerIdOf(String token) {
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || last <= first + 1 || token.length() - last - 1 != MAC_BYTES * 2) {
+            return -1;
+        }
+        try {
+            int customerId = Integer.parseInt(token, 0, first, 10);
+            long expiry = Long.parseLong(token, first + 1, last, 10);
+            if (expiry * 1000 < CoarseClock.millis()) {
+                return -1;
+            }
+            byte[] expected = HEX.parseHex(token, last + 1, token.length());
+            byte[] actual = mac(token.substring(0, last).getBytes(StandardCharsets.US_ASCII));
+            // constant time, a mismatch position must not leak
+            return MessageDigest.isEqual(expected, actual) ? customerId : -1;
+        } catch (IllegalArgumentException e) {
+            return -1;// NumberFormatException included
+        }
+    }
+
+    private byte[] mac(byte[] payload) {
+        Mac mac = macs.poll();
+        if (mac == null) {
+            mac = newMac();
+        }
+        try {
+            byte[] full = mac.doFinal(payload);
+            byte[] truncated = new byte[MAC_BYTES];
+            System.arraycopy(full, 0, truncated, 0, MAC_BYTES);
+            return truncated;
+        } finally {
+            macs.offer(mac);
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create " + ALGORITHM, e);
+        }
+    }
+}
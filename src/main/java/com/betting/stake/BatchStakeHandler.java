@@ -0,0 +1,276 @@
+package com.betting.stake;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import com.betting.cluster.Cluster;
+import com.betting.replication.Replication;
+import com.betting.session.SessionManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * POST /stakes?sessionkey=... with the body betOfferId=stake,betOfferId=stake...
+ *
+ * The session is validated once for the whole batch. The response body has one status
+ * per item, in the order of the request: 200 when stored, 400 when the item is malformed.
+ * An invalid session rejects the whole batch with 401.
+ */
+public class BatchStakeHandler implements HttpHandler {
+
+    // bound on the work and the response size of one request
+    public static final int MAX_ITEMS = 1000;
+
+    // a 10 digit betOfferId, '=', a sign and a 10 digit stake
+    private static final int MAX_ITEM_BYTES = 22;
+
+    // MAX_ITEMS of the longest items and their commas, bodies above are not read
+    public static final int MAX_BODY_BYTES = MAX_ITEMS * (MAX_ITEM_BYTES + 1) - 1;
+
+    private final SessionManager sessionManager;
+    private final StakeManager stakeStore;
+
+    private final Cluster cluster = Cluster.getInstance();
+
+    private final Replication replication = Replication.getInstance();
+
+    public BatchStakeHandler(SessionManager sessionManager, StakeManager stakeStore) {
+        this.sessionManager = Objects.requireNonNull(sessionManager);
+        this.stakeStore = Objects.requireNonNull(stakeStore);
+    }
+
+    /**
+     * Status and body of a batch
+     */
+    public record Result(int status, byte[] body) {
+    }
+
+    private static final Result UNAUTHORIZED = new Result(401, null);
+    private static final Result TOO_LARGE = new Result(413, null);
+    private static final Result READ_ONLY = new Result(405, null);
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, 0);// 405 Method Not Allowed
+            exchange.close();
+            return;
+        }
+
+        try {
+            String query = exchange.getRequestURI().getRawQuery();
+            String sessionKey = StakeHandler.sessionKey(query);
+            if (sessionKey == null) {
+                exchange.sendResponseHeaders(400, 0);//Bad Request
+                return;
+            }
+
+            // one byte more tells a body too large without reading the rest of it
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                exchange.sendResponseHeaders(TOO_LARGE.status(), 0);
+                return;
+            }
+            int forwarded = StakeHandler.forwarded(cluster, exchange, "POST", body);
+            if (forwarded == Cluster.FORGED) {
+                exchange.sendResponseHeaders(UNAUTHORIZED.status(), 0);
+                return;
+            }
+            Result result = recordStakes(sessionKey, ByteBuffer.wrap(body), 0, body.length,
+                    forwarded == Cluster.FORWARDED);
+
+            if (result.body() == null) {
+                exchange.sendResponseHeaders(result.status(), 0);
+                return;
+            }
+            exchange.sendResponseHeaders(result.status(), result.body().length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(result.body());
+            }
+        } catch (Exception e) {
+            // malformed items get their own 400, this is a server side failure like the journal
+            exchange.sendResponseHeaders(500, 0);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The transport independent part, the items are read from [start, end) of the buffer
+     *
+     * @param forwarded the request came from another node, never forward it again
+     */
+    public Result recordStakes(String sessionKey, ByteBuffer body, int start, int end, boolean forwarded) {
+        if (replication.isReplica()) {
+            return READ_ONLY;// followers only take the stakes of their leader
+        }
+        // validated and resolved in one step
+        int customerId = sessionKey.isEmpty() ? -1 : sessionManager.customerIdOf(sessionKey);
+        if (customerId == -1) {
+            return UNAUTHORIZED;//Unauthorized
+        }
+
+        int items = 0;
+        for (int i = start; i < end; i++) {
+            if (body.get(i) == ',') {
+                items++;
+            }
+        }
+        items++;
+        if (items > MAX_ITEMS) {
+            return TOO_LARGE;
+        }
+
+        int[] betOfferIds = new int[items];
+        int[] stakes = new int[items];
+        int[] positions = new int[items];// item index of each valid stake
+        byte[] statuses = new byte[items * 4 - 1];// "200," per item, no trailing comma
+        int valid = 0;
+
+        int item = 0;
+        for (int from = start; item < items; item++) {
+            int to = from;
+            while (to < end && body.get(to) != ',') {
+                to++;
+            }
+            long parsed = parseItem(body, from, to);
+            boolean ok = parsed != INVALID;
+            if (ok) {
+                betOfferIds[valid] = (int) (parsed >> 32);
+                stakes[valid] = (int) parsed;
+                positions[valid] = item;
+                valid++;
+            }
+            putStatus(statuses, item, ok ? 200 : 400);
+            from = to + 1;
+        }
+
+        if (!forwarded && cluster.isClustered()) {
+            valid = forwardRemote(sessionKey, betOfferIds, stakes, positions, valid, statuses);
+        }
+
+        stakeStore.recordStakes(customerId, betOfferIds, stakes, valid);
+        return new Result(200, statuses);
+    }
+
+    /**
+     * Send the stakes of bet offers owned by other nodes to them, one request per node, and
+     * copy their statuses into the answer (503 for the items of a node that didn't answer).
+     * The local stakes are moved to the front of the arrays.
+     *
+     * @return the number of local stakes
+     */
+    private int forwardRemote(String sessionKey, int[] betOfferIds, int[] stakes, int[] positions, int valid,
+            byte[] statuses) {
+        int[] remoteOwners = new int[valid];
+        int[] remoteItems = new int[valid];// index into the arrays before compaction
+        int[] remoteOffers = new int[valid];
+        int[] remoteStakes = new int[valid];
+        int remote = 0;
+        int local = 0;
+        for (int i = 0; i < valid; i++) {
+            int owner = cluster.ownerOf(betOfferIds[i]);
+            if (cluster.owns(betOfferIds[i])) {
+                betOfferIds[local] = betOfferIds[i];
+                stakes[local] = stakes[i];
+                positions[local] = positions[i];
+                local++;
+            } else {
+                remoteOwners[remote] = owner;
+                remoteItems[remote] = positions[i];
+                remoteOffers[remote] = betOfferIds[i];
+                remoteStakes[remote] = stakes[i];
+                remote++;
+            }
+        }
+
+        boolean[] done = new boolean[remote];
+        for (int first = 0; first < remote; first++) {
+            if (done[first]) {
+                continue;
+            }
+            int node = remoteOwners[first];
+            StringBuilder items = new StringBuilder();
+            int[] sent = new int[remote];
+            int count = 0;
+            for (int i = first; i < remote; i++) {
+                if (remoteOwners[i] == node) {
+                    if (count > 0) {
+                        items.append(',');
+                    }
+                    items.append(remoteOffers[i]).append('=').append(remoteStakes[i]);
+                    sent[count++] = remoteItems[i];
+                    done[i] = true;
+                }
+            }
+
+            // the node answers one status per item, in the order sent
+            byte[] answer = cluster.forwardStakes(node, sessionKey, items.toString());
+            for (int k = 0; k < count; k++) {
+                if (answer != null && answer.length >= k * 4 + 3) {
+                    System.arraycopy(answer, k * 4, statuses, sent[k] * 4, 3);
+                } else {
+                    putStatus(statuses, sent[k], Cluster.UNAVAILABLE);
+                }
+            }
+        }
+        return local;
+    }
+
+    private static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * betOfferId=stake, both ints, the betOfferId non negative like in the paths
+     *
+     * @return betOfferId << 32 | stake, or INVALID
+     */
+    private static long parseItem(ByteBuffer body, int from, int to) {
+        int equals = from;
+        while (equals < to && body.get(equals) != '=') {
+            equals++;
+        }
+        if (equals == from || equals == to || body.get(from) == '-') {
+            return INVALID;
+        }
+        long betOfferId = parseInt(body, from, equals);
+        long stake = parseInt(body, equals + 1, to);
+        if (betOfferId == INVALID || stake == INVALID) {
+            return INVALID;
+        }
+        return betOfferId << 32 | (stake & 0xFFFFFFFFL);
+    }
+
+    private static long parseInt(ByteBuffer body, int from, int to) {
+        boolean negative = from < to && body.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = body.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                return INVALID;
+            }
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? INVALID : value;
+    }
+
+    private static void putStatus(byte[] statuses, int item, int status) {
+        int at = item * 4;
+        if (item > 0) {
+            statuses[at - 1] = ',';
+        }
+        statuses[at] = (byte) ('0' + status / 100);
+        statuses[at + 1] = (byte) ('0' + status / 10 % 10);
+        statuses[at + 2] = (byte) ('0' + status % 10);
+    }
+}
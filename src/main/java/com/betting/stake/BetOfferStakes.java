@@ -0,0 +1,49 @@
+package com.betting.stake;
+
+/**
+ * Everything kept for one bet offer: the top 20 leaderboard and the full stake history
+ */
+class BetOfferStakes {
+
+    final HighStakesBoard board = new HighStakesBoard();
+
+    final StakeLog log;
+
+    // timestamp of the last stake, for the cold storage; read without synchronization by
+    // the sweeper, a stale value only delays the eviction
+    long lastWrite = System.currentTimeMillis();
+
+    // ColdStore epoch of the last read
+    int lastRead = ColdStore.NEVER;
+
+    // moved to the cold storage, holders of a reference must look the offer up again
+    volatile boolean evicted = false;
+
+    BetOfferStakes(StakeLog log) {
+        this.log = log;
+    }
+
+    void apply(int customerId, int stake, long timestamp) {
+        // Store only the maximum stake per customer, and only while it is in the top 20
+        board.offer(customerId, stake);
+
+        // all stakes are kept in the append-only columnar log of the bet offer
+        log.append(customerId, stake, timestamp);
+        lastWrite = timestamp;
+    }
+
+    /**
+     * Apply stakes[from, to) of one customer, locking the board and the log once
+     */
+    void applyAll(int customerId, int[] stakes, int from, int to, long timestamp) {
+        // same customer: only its max stake of the group can change the board
+        int max = stakes[from];
+        for (int i = from + 1; i < to; i++) {
+            max = Math.max(max, stakes[i]);
+        }
+        board.offer(customerId, max);
+
+        log.appendAll(customerId, stakes, from, to, timestamp);
+        lastWrite = timestamp;
+    }
+}
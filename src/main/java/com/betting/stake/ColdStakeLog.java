@@ -0,0 +1,75 @@
+package com.betting.stake;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The history of an evicted bet offer: length deflated bytes at offset of a cold segment.
+ * Immutable: the offer is faulted back in before it takes another stake.
+ */
+class ColdStakeLog implements StakeLog {
+
+    final ColdStore.Segment segment;
+
+    final int betOfferId;
+
+    private final int size;
+
+    private final long offset;
+
+    final int length;
+
+    ColdStakeLog(ColdStore.Segment segment, int betOfferId, int size, long offset, int length) {
+        this.segment = segment;
+        this.betOfferId = betOfferId;
+        this.size = size;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public void append(int customerId, int stake, long timestamp) {
+        throw new UnsupportedOperationException("bet offer " + betOfferId + " is in the cold storage");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(int count, StakeConsumer consumer) {
+        byte[] deflated = new byte[length];
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(deflated);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Truncated cold segment " + segment.file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the cold bet offer " + betOfferId, e);
+        }
+        // closing ends the inflater
+        try (DataInputStream rows = new DataInputStream(
+                new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(deflated))))) {
+            long timestamp = 0;
+            for (int i = 0; i < count; i++) {
+                int customerId = rows.readInt();
+                int stake = rows.readInt();
+                timestamp += rows.readLong();
+                consumer.accept(customerId, stake, timestamp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the cold bet offer " + betOfferId, e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.betting.stake;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.collection.IntObjConcurrentMap;
+
+/**
+ * The bet offers evicted from memory (-DCOLD_STORAGE_DIR), written by batches into segment
+ * files: one deflate stream per offer, of rows of customer id, stake and the timestamp as a
+ * delta to the previous one, which is mostly a few bytes of zeros. Where each offer starts
+ * is only kept in memory.
+ *
+ * A segment is written once and never changed. Once none of its offers is cold any more it
+ * is deleted by the next sweep, unless a snapshot or a replication copy may still read it
+ * (pins). The files are only a cache of the memory, they are wiped at startup.
+ */
+class ColdStore {
+
+    private static Logger logger = LoggerFactory.getLogger(ColdStore.class);
+
+    // lastRead of an offer no read has touched
+    static final int NEVER = Integer.MIN_VALUE;
+
+    private final Path directory;
+
+    final long coldAfterMillis;
+
+    // offers idle for writes kept in memory because they were read recently
+    final int cachedOffers;
+
+    private final IntObjConcurrentMap<ColdStakeLog> offers = new IntObjConcurrentMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<Segment> obsolete = new ConcurrentLinkedQueue<>();
+
+    // snapshots and replication copies reading segments
+    private final AtomicInteger pins = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder faults = new LongAdder();
+
+    // incremented by every sweep, reads stamp the offers with it
+    private volatile int epoch = 0;
+
+    static final class Segment {
+
+        final Path file;
+
+        // offers of the segment still cold, or not committed yet
+        private final AtomicInteger live;
+
+        Segment(Path file, int offers) {
+            this.file = file;
+            this.live = new AtomicInteger(offers);
+        }
+    }
+
+    ColdStore(Path directory, long coldAfterMillis, int cachedOffers) throws IOException {
+        this.directory = directory;
+        this.coldAfterMillis = coldAfterMillis;
+        this.cachedOffers = cachedOffers;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(ColdStore::isSegment).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith("cold-") && name.endsWith(".seg");
+    }
+
+    int epoch() {
+        return epoch;
+    }
+
+    int nextEpoch() {
+        return ++epoch;// only the sweeper writes
+    }
+
+    ColdStakeLog get(int betOfferId) {
+        return offers.get(betOfferId);
+    }
+
+    /**
+     * Write the first counts[i] stakes of logs[i] for i below offers to a new segment, the
+     * offers stay in memory until commit()
+     */
+    ColdStakeLog[] write(int[] betOfferIds, StakeLog[] logs, int[] counts, int offers) throws IOException {
+        Segment segment = new Segment(directory.resolve("cold-" + generation.incrementAndGet() + ".seg"), offers);
+        ColdStakeLog[] written = new ColdStakeLog[offers];
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(4096);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(segment.file), 65536)) {
+            long offset = 0;
+            for (int i = 0; i < offers; i++) {
+                deflated.reset();
+                deflater.reset();
+                deflate(logs[i], counts[i], new DataOutputStream(new DeflaterOutputStream(deflated, deflater)));
+                deflated.writeTo(out);
+                written[i] = new ColdStakeLog(segment, betOfferIds[i], counts[i], offset, deflated.size());
+                offset += deflated.size();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(segment.file);
+            throw e;
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(segment.file);
+            throw e.getCause();
+        } finally {
+            deflater.end();
+        }
+        return written;
+    }
+
+    private static void deflate(StakeLog log, int count, DataOutputStream rows) throws IOException {
+        long[] last = { 0 };
+        log.forEach(count, (customerId, stake, timestamp) -> {
+            try {
+                rows.writeInt(customerId);
+                rows.writeInt(stake);
+                rows.writeLong(timestamp - last[0]);
+                last[0] = timestamp;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        rows.close();// finishes the stream, the shared deflater isn't ended
+    }
+
+    /**
+     * The offer is in this store from now on, called with the writers held back
+     */
+    void commit(ColdStakeLog log) {
+        offers.put(log.betOfferId, log);
+        bytes.addAndGet(log.length);
+        evictions.increment();
+    }
+
+    /**
+     * The offer is back in memory, its segment will be deleted
+     */
+    void faulted(ColdStakeLog log) {
+        if (offers.remove(log.betOfferId, log)) {
+            bytes.addAndGet(-log.length);
+            faults.increment();
+            release(log);
+        }
+    }
+
+    /**
+     * Written for nothing, the offer took a stake before the commit
+     */
+    void discard(ColdStakeLog log) {
+        release(log);
+    }
+
+    private void release(ColdStakeLog log) {
+        if (log.segment.live.decrementAndGet() == 0) {
+            obsolete.add(log.segment);
+        }
+    }
+
+    void clear() {
+        int[] ids = new int[offers.size() + 16];
+        int[] count = { 0 };
+        offers.forEach((betOfferId, log) -> {
+            if (count[0] < ids.length) {
+                ids[count[0]++] = betOfferId;
+            }
+        });
+        for (int i = 0; i < count[0]; i++) {
+            ColdStakeLog log = offers.remove(ids[i]);
+            if (log != null) {
+                bytes.addAndGet(-log.length);
+                release(log);
+            }
+        }
+    }
+
+    void forEach(IntObjConcurrentMap.EntryConsumer<ColdStakeLog> consumer) {
+        offers.forEach(consumer);
+    }
+
+    int size() {
+        return offers.size();
+    }
+
+    void pin() {
+        pins.incrementAndGet();
+    }
+
+    void unpin() {
+        pins.decrementAndGet();
+    }
+
+    /**
+     * Delete the segments without cold offers, unless a snapshot or a copy may still read them.
+     * Called with the snapshots and copies held back from pinning.
+     */
+    void deleteObsolete() {
+        if (pins.get() > 0) {
+            return;
+        }
+        Segment segment;
+        while ((segment = obsolete.poll()) != null) {
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}: {}", segment.file, e.toString());
+            }
+        }
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    long getFaults() {
+        return faults.sum();
+    }
+}
@@ -0,0 +1,163 @@
+package com.betting.stake;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * On heap StakeLog packed into byte blocks, one record after the other: customerId and
+ * stake as unsigned varints, the timestamp as the zigzag varint of its delta to the previous
+ * record. Ids and stakes below 2 million take 1 to 3 bytes, the timestamp delta 1 to 3, so
+ * a record is 5 to 9 bytes instead of 16. Only sequential decoding from the start is possible.
+ *
+ * The first block starts small and is copied into a 1.5 times bigger one until it reaches
+ * MAX_BLOCK_SIZE, then full blocks are sealed and new ones chained, never copied again.
+ *
+ * Writers are serialized by a lock, readers are lock free: they only decode the records
+ * below the published size, which a copied block contains as well.
+ */
+class CompactStakeLog implements StakeLog {
+
+    private static final int FIRST_BLOCK_SIZE = 32;
+
+    private static final int MAX_BLOCK_SIZE = 16384;
+
+    // 5 + 5 + 10 bytes of varints
+    private static final int MAX_RECORD_BYTES = 20;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private static final class Blocks {
+        final byte[][] blocks;
+        // end of the records of each sealed block, all but the last one
+        final int[] ends;
+
+        Blocks(byte[][] blocks, int[] ends) {
+            this.blocks = blocks;
+            this.ends = ends;
+        }
+    }
+
+    // replaced when a block is added or grown, sealed blocks are shared
+    private volatile Blocks blocks = new Blocks(new byte[][] { new byte[FIRST_BLOCK_SIZE] }, new int[0]);
+
+    // writer side cursor: last block, position in it and timestamp of the last record
+    private byte[] block = blocks.blocks[0];
+    private int position = 0;
+    private long lastTimestamp = 0;
+
+    // records below size are fully written
+    private volatile int size = 0;
+
+    @Override
+    public void append(int customerId, int stake, long timestamp) {
+        appendLock.lock();
+        try {
+            put(customerId, stake, timestamp);
+            size = size + 1;// publish
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void appendAll(int customerId, int[] stakes, int from, int to, long timestamp) {
+        appendLock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                put(customerId, stakes[i], timestamp);
+            }
+            size = size + (to - from);// publish the whole batch
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void put(int customerId, int stake, long timestamp) {
+        if (block.length - position < MAX_RECORD_BYTES) {
+            grow();
+        }
+        byte[] b = block;
+        int p = position;
+        p = putVarint(b, p, Integer.toUnsignedLong(customerId));
+        p = putVarint(b, p, Integer.toUnsignedLong(stake));
+        long delta = timestamp - lastTimestamp;
+        p = putVarint(b, p, (delta << 1) ^ (delta >> 63));
+        position = p;
+        lastTimestamp = timestamp;
+    }
+
+    private static int putVarint(byte[] b, int p, long value) {
+        while ((value & ~0x7FL) != 0) {
+            b[p++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        b[p++] = (byte) value;
+        return p;
+    }
+
+    private void grow() {
+        Blocks current = blocks;
+        int last = current.blocks.length - 1;
+        if (block.length < MAX_BLOCK_SIZE) {
+            // readers holding the old block still find their records in it
+            byte[] grown = new byte[Math.min(block.length + (block.length >> 1), MAX_BLOCK_SIZE)];
+            System.arraycopy(block, 0, grown, 0, position);
+            byte[][] list = current.blocks.clone();
+            list[last] = grown;
+            block = grown;
+            blocks = new Blocks(list, current.ends);
+            return;
+        }
+        byte[][] list = new byte[last + 2][];
+        System.arraycopy(current.blocks, 0, list, 0, last + 1);
+        int[] ends = new int[last + 1];
+        System.arraycopy(current.ends, 0, ends, 0, last);
+        ends[last] = position;// seal
+        block = new byte[MAX_BLOCK_SIZE];
+        list[last + 1] = block;
+        position = 0;
+        blocks = new Blocks(list, ends);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(int count, StakeConsumer consumer) {
+        Blocks c = blocks;
+        Decoder in = new Decoder();
+        long timestamp = 0;
+        int visited = 0;
+        for (int i = 0; visited < count; i++) {
+            in.block = c.blocks[i];
+            in.position = 0;
+            int end = i < c.ends.length ? c.ends[i] : in.block.length;
+            while (in.position < end && visited < count) {
+                int customerId = (int) in.varint();
+                int stake = (int) in.varint();
+                long delta = in.varint();
+                timestamp += (delta >>> 1) ^ -(delta & 1);
+                consumer.accept(customerId, stake, timestamp);
+                visited++;
+            }
+        }
+    }
+
+    private static final class Decoder {
+        byte[] block;
+        int position;
+
+        long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.betting.stake;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * On heap StakeLog, stored column by column (customerId, stake, timestamp) in chunks of
+ * primitive arrays.
+ *
+ * Appending writes at the cursor in O(1), a full chunk is never copied, the next one is
+ * added instead. Chunks start small and double up to MAX_CHUNK_SIZE, so the many bet
+ * offers with a handful of stakes stay cheap.
+ *
+ * Writers are serialized by a lock, readers are lock free: they only see the records
+ * below the published size.
+ */
+class HeapStakeLog implements StakeLog {
+
+    private static final int FIRST_CHUNK_SIZE = 16;
+
+    private static final int MAX_CHUNK_SIZE = 4096;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private static final class Columns {
+        final int[][] customerIds;
+        final int[][] stakes;
+        final long[][] timestamps;
+
+        Columns(int chunks) {
+            customerIds = new int[chunks][];
+            stakes = new int[chunks][];
+            timestamps = new long[chunks][];
+        }
+    }
+
+    // replaced when a chunk is added, the chunks themselves are shared
+    private volatile Columns columns = new Columns(0);
+
+    // writer side cursor: current chunk and position in it
+    private int chunk = -1;
+    private int position = 0;
+
+    // records below size are fully written
+    private volatile int size = 0;
+
+    @Override
+    public void append(int customerId, int stake, long timestamp) {
+        appendLock.lock();
+        try {
+            put(customerId, stake, timestamp);
+            size = size + 1;// publish
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void appendAll(int customerId, int[] stakes, int from, int to, long timestamp) {
+        appendLock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                put(customerId, stakes[i], timestamp);
+            }
+            size = size + (to - from);// publish the whole batch
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void put(int customerId, int stake, long timestamp) {
+        Columns c = columns;
+        if (chunk < 0 || position == c.stakes[chunk].length) {
+            c = addChunk(c);
+        }
+        c.customerIds[chunk][position] = customerId;
+        c.stakes[chunk][position] = stake;
+        c.timestamps[chunk][position] = timestamp;
+        position++;
+    }
+
+    private Columns addChunk(Columns c) {
+        int length = chunk < 0 ? FIRST_CHUNK_SIZE : Math.min(c.stakes[chunk].length * 2, MAX_CHUNK_SIZE);
+        Columns grown = new Columns(chunk + 2);
+        System.arraycopy(c.customerIds, 0, grown.customerIds, 0, chunk + 1);
+        System.arraycopy(c.stakes, 0, grown.stakes, 0, chunk + 1);
+        System.arraycopy(c.timestamps, 0, grown.timestamps, 0, chunk + 1);
+        chunk++;
+        grown.customerIds[chunk] = new int[length];
+        grown.stakes[chunk] = new int[length];
+        grown.timestamps[chunk] = new long[length];
+        columns = grown;
+        position = 0;
+        return grown;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(int count, StakeConsumer consumer) {
+        Columns c = columns;
+        int visited = 0;
+        for (int i = 0; visited < count; i++) {
+            int[] customerIds = c.customerIds[i];
+            int[] stakes = c.stakes[i];
+            long[] timestamps = c.timestamps[i];
+            int n = Math.min(stakes.length, count - visited);
+            for (int j = 0; j < n; j++) {
+                consumer.accept(customerIds[j], stakes[j], timestamps[j]);
+            }
+            visited += n;
+        }
+    }
+}
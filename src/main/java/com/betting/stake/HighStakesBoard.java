@@ -0,0 +1,135 @@
+package com.betting.stake;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded top-K leaderboard of one bet offer, kept sorted by stake descending.
+ *
+ * Only the max stake of each customer counts, and a customer's max can only grow,
+ * so a customer that falls out of the top K can never come back with its old value:
+ * keeping just K entries is enough and no periodic trimming is needed.
+ *
+ * The rendered csv is cached together with the version it was rendered from, and only
+ * rebuilt on the first read after a write changed the top K.
+ */
+class HighStakesBoard {
+
+    static final int CAPACITY = 20;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // parallel primitive arrays, sorted by stakes descending
+    private final int[] customerIds = new int[CAPACITY];
+    private final int[] stakes = new int[CAPACITY];
+    private int size = 0;
+
+    // bumped on every change of the top K
+    private volatile long version = 0;
+
+    private volatile Rendered rendered;
+
+    private record Rendered(long version, byte[] bytes) {
+    }
+
+    /**
+     * Offer a stake of the customer, the board is changed in place
+     *
+     * @return true if the top K changed
+     */
+    boolean offer(int customerId, int stake) {
+        lock.lock();
+        try {
+            int pos = indexOf(customerId);
+            if (pos >= 0) {
+                if (stake <= stakes[pos]) {
+                    return false;
+                }
+            } else if (size < CAPACITY) {
+                pos = size++;
+            } else if (stake > stakes[CAPACITY - 1]) {
+                pos = CAPACITY - 1;// the lowest one is pushed out
+            } else {
+                return false;
+            }
+
+            // move the entry up until the order is restored
+            while (pos > 0 && stakes[pos - 1] < stake) {
+                customerIds[pos] = customerIds[pos - 1];
+                stakes[pos] = stakes[pos - 1];
+                pos--;
+            }
+            customerIds[pos] = customerId;
+            stakes[pos] = stake;
+            version++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int indexOf(int customerId) {
+        for (int i = 0; i < size; i++) {
+            if (customerIds[i] == customerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * The rendered csv in bytes, shared between readers, must not be modified
+     */
+    byte[] renderBytes() {
+        Rendered r = rendered;
+        if (r != null && r.version == version) {
+            return r.bytes;
+        }
+
+        lock.lock();
+        try {
+            r = rendered;
+            if (r == null || r.version != version) {
+                r = new Rendered(version, render().getBytes(StandardCharsets.US_ASCII));
+                rendered = r;
+            }
+            return r.bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget the cached csv, the next read renders it again
+     */
+    void dropRendered() {
+        rendered = null;
+    }
+
+    /**
+     * csv format: customerId=stake,customerId=stake...
+     */
+    String render() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder(size * 16);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(customerIds[i]).append('=').append(stakes[i]);
+            }
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Objects;
 
+import com.betting.Router;
+import com.betting.cluster.Cluster;
+import com.betting.replication.Replication;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
@@ -11,42 +14,79 @@ public class HighStakesHandler implements HttpHandler {
 
     private final StakeManager stakeStore;
 
+    private final Cluster cluster = Cluster.getInstance();
+
+    private final Replication replication = Replication.getInstance();
+
     public HighStakesHandler(StakeManager stakeStore) {
         this.stakeStore = Objects.requireNonNull(stakeStore);
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        
-        if (!"GET".equals(exchange.getRequestMethod())) {
-            exchange.sendResponseHeaders(405, 0);// 405 Method Not Allowed
+        long parsed = Router.parse(exchange.getRequestURI().getRawPath());
+        if (Router.route(parsed) != Router.HIGH_STAKES) {
+            exchange.sendResponseHeaders(400, 0);// 400 Bad Request
             exchange.close();
             return;
         }
+        handle(exchange, Router.id(parsed));
+    }
 
-        String path = exchange.getRequestURI().getPath();
-        String[] parts = path.split("/");
-        if (parts.length < 3) {
-            exchange.sendResponseHeaders(400, 0);// 400 Bad Request
+    /**
+     * Handle a request already routed by Router, betofferid is parsed from the path
+     */
+    public void handle(HttpExchange exchange, int betofferid) throws IOException {
+        
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, 0);// 405 Method Not Allowed
             exchange.close();
             return;
         }
 
         try {
-            int betofferid = Integer.parseInt(parts[1]);
+            int forwarded = StakeHandler.forwarded(cluster, exchange, "GET", null);
+            if (forwarded == Cluster.FORGED) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
 
-            String hightStacks = stakeStore.getHighStakes(betofferid);
+            byte[] hightStacks = highStakes(betofferid, forwarded == Cluster.FORWARDED);
 
-            exchange.sendResponseHeaders(200, hightStacks.length());
+            if (hightStacks == null) {
+                exchange.sendResponseHeaders(Cluster.UNAVAILABLE, -1);// the owner didn't answer, or a stale follower
+                return;
+            }
+
+            if (hightStacks.length == 0) {
+                exchange.sendResponseHeaders(200, -1);// no body
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, hightStacks.length);
 
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(hightStacks.getBytes());
+                os.write(hightStacks);
             }
-        } catch (NumberFormatException e) {
-            exchange.sendResponseHeaders(400, 0);
         } finally {
             exchange.close();
         }
     }
 
+    /**
+     * The transport independent part: the csv of the local top 20, or the owner's
+     *
+     * @param forwarded the request came from another node, never forward it again
+     * @return null if the owning node didn't answer, or this follower is too far behind its leader
+     */
+    public byte[] highStakes(int betOfferId, boolean forwarded) {
+        if (!forwarded && !cluster.owns(betOfferId)) {
+            return cluster.forwardHighStakes(betOfferId);
+        }
+        if (replication.isStale()) {
+            return null;
+        }
+        // cached bytes, no string building for unchanged bet offers
+        return stakeStore.getHighStakesBytes(betOfferId);
+    }
 }
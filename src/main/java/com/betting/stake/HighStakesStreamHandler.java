@@ -0,0 +1,216 @@
+package com.betting.stake;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.betting.Router;
+import com.betting.cluster.Cluster;
+import com.betting.replication.Replication;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * GET /{betofferid}/highstakes/stream: the top 20 pushed as server-sent events, one event
+ * (id: version, data: csv) when the connection opens and one per change after that.
+ *
+ * GET /{betofferid}/highstakes/stream?since=version is the long poll variant: answered with
+ * the csv and its version in the X-Version header as soon as there is a newer version
+ * than since, or after LONG_POLL_NANOS with the current one.
+ *
+ * The connection is held by the virtual thread of the request. Subscriptions are not
+ * counted by the concurrency limiter, HighStakesSubscriptions bounds them.
+ */
+public class HighStakesStreamHandler implements HttpHandler {
+
+    public static final String SINCE_PARAM = "since";
+
+    public static final String VERSION_HEADER = "X-Version";
+
+    private static final long LONG_POLL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // a comment line every so often, finds the clients that are gone
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    // the offer is stored on another node, its subscriptions are served there
+    public static final int MISDIRECTED = 421;
+
+    private final HighStakesSubscriptions subscriptions;
+
+    private final Cluster cluster = Cluster.getInstance();
+
+    private final Replication replication = Replication.getInstance();
+
+    /**
+     * Where the events go: the response headers first, then the events
+     */
+    public interface EventSink {
+
+        void open() throws IOException;
+
+        void send(byte[] event) throws IOException;
+    }
+
+    public HighStakesStreamHandler(HighStakesSubscriptions subscriptions) {
+        this.subscriptions = Objects.requireNonNull(subscriptions);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long parsed = Router.parse(exchange.getRequestURI().getRawPath());
+        if (Router.route(parsed) != Router.HIGH_STAKES_STREAM) {
+            exchange.sendResponseHeaders(400, 0);
+            exchange.close();
+            return;
+        }
+        handle(exchange, Router.id(parsed));
+    }
+
+    /**
+     * Handle a request already routed by Router, betOfferId is parsed from the path
+     */
+    public void handle(HttpExchange exchange, int betOfferId) throws IOException {
+
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, 0);// 405 Method Not Allowed
+            exchange.close();
+            return;
+        }
+
+        try {
+            String since = queryParameter(exchange.getRequestURI().getRawQuery(), SINCE_PARAM);
+            if (since != null) {
+                long version;
+                try {
+                    version = Long.parseLong(since);
+                } catch (NumberFormatException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                int refused = refusal(betOfferId);
+                HighStakesSubscriptions.Snapshot snapshot = refused == 0 ? poll(betOfferId, version) : null;
+                if (snapshot == null) {
+                    exchange.sendResponseHeaders(refused == 0 ? Cluster.UNAVAILABLE : refused, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set(VERSION_HEADER, String.valueOf(snapshot.version()));
+                exchange.sendResponseHeaders(200, snapshot.csv().length == 0 ? -1 : snapshot.csv().length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(snapshot.csv());
+                }
+                return;
+            }
+
+            OutputStream os = exchange.getResponseBody();
+            int status = stream(betOfferId, new EventSink() {
+                @Override
+                public void open() throws IOException {
+                    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    exchange.sendResponseHeaders(200, 0);// chunked, until the client goes away
+                }
+
+                @Override
+                public void send(byte[] event) throws IOException {
+                    os.write(event);
+                    os.flush();
+                }
+            });
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the status to answer instead of subscribing, 0 if the offer can be subscribed to here
+     */
+    public int refusal(int betOfferId) {
+        if (!cluster.owns(betOfferId)) {
+            return MISDIRECTED;
+        }
+        if (replication.isStale()) {
+            return Cluster.UNAVAILABLE;
+        }
+        return 0;
+    }
+
+    /**
+     * The transport independent part of the long poll
+     *
+     * @return a snapshot newer than the version or, after LONG_POLL_NANOS, the current
+     *         one; null if there are too many subscribers
+     */
+    public HighStakesSubscriptions.Snapshot poll(int betOfferId, long version) {
+        HighStakesSubscriptions.Topic topic = subscriptions.subscribe(betOfferId);
+        if (topic == null) {
+            return null;
+        }
+        try {
+            return subscriptions.await(topic, version, LONG_POLL_NANOS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            subscriptions.unsubscribe(topic);
+        }
+    }
+
+    /**
+     * The transport independent part of the event stream, returns once the client is gone
+     *
+     * @return 200 after streaming, otherwise the status to answer without opening the stream
+     */
+    public int stream(int betOfferId, EventSink sink) {
+        int refused = refusal(betOfferId);
+        if (refused != 0) {
+            return refused;
+        }
+        HighStakesSubscriptions.Topic topic = subscriptions.subscribe(betOfferId);
+        if (topic == null) {
+            return Cluster.UNAVAILABLE;
+        }
+        try {
+            sink.open();
+            long version = -1;
+            while (true) {
+                HighStakesSubscriptions.Snapshot snapshot = subscriptions.await(topic, version, HEARTBEAT_NANOS);
+                if (snapshot.version() > version) {
+                    sink.send(snapshot.event());
+                    version = snapshot.version();
+                } else {
+                    sink.send(HEARTBEAT);
+                }
+            }
+        } catch (IOException e) {
+            return 200;// the client closed the connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 200;
+        } finally {
+            subscriptions.unsubscribe(topic);
+        }
+    }
+
+    /**
+     * The value of a query parameter, or null
+     */
+    static String queryParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.length() > name.length() && parameter.charAt(name.length()) == '='
+                    && parameter.startsWith(name)) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+}
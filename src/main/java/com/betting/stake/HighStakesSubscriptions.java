@@ -0,0 +1,273 @@
+package com.betting.stake;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.collection.IntObjConcurrentMap;
+import com.betting.replication.Replication;
+
+/**
+ * Subscriptions to the top 20 of bet offers, for the clients that used to poll /highstakes.
+ *
+ * Subscribers wait on the topic of their offer. Once per TICK_MILLIS a single publisher
+ * thread looks at the offers that have a topic, and only where the cached csv of the
+ * board changed it publishes one new snapshot and wakes the subscribers: a burst of stakes
+ * on an offer within a tick is one update, rendered once and shared by all of them. The
+ * write path is not involved at all.
+ *
+ * Snapshot versions come from one counter for all topics, so a version a client got from
+ * a topic that was dropped in the meantime is older than any version of the new topic.
+ */
+public class HighStakesSubscriptions {
+
+    private static Logger logger = LoggerFactory.getLogger(HighStakesSubscriptions.class);
+
+    static final long TICK_MILLIS = 100;
+
+    // bound on the connections held open, instead of the concurrency limit
+    static final int MAX_SUBSCRIBERS = 10_000;
+
+    // bound on the topics, idle ones included: the memory and the work of every tick
+    static final int MAX_TOPICS = 20_000;
+
+    // a topic without subscribers is kept this long, long polls come back to it
+    private static final long IDLE_TOPIC_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    // Singleton pattern
+    private static HighStakesSubscriptions instance = new HighStakesSubscriptions(StakeManager.getInstance());
+
+    /**
+     * One published top 20: the csv for long polls and the same as a server-sent event
+     */
+    public record Snapshot(long version, byte[] csv, byte[] event) {
+    }
+
+    private final StakeManager stakeManager;
+
+    private final Replication replication = Replication.getInstance();
+
+    private final IntObjConcurrentMap<Topic> topics = new IntObjConcurrentMap<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    // topics created and not dropped yet, reserved before creating one
+    private final AtomicInteger topicCount = new AtomicInteger();
+
+    private final LongAdder updates = new LongAdder();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    HighStakesSubscriptions(StakeManager stakeManager) {
+        this.stakeManager = stakeManager;
+    }
+
+    public static HighStakesSubscriptions getInstance() {
+        return instance;
+    }
+
+    static final class Topic {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        final Condition changed = lock.newCondition();
+
+        volatile Snapshot snapshot;
+
+        // guarded by lock
+        int subscribers = 0;
+        long idleSince = System.nanoTime();
+        boolean closed = false;
+    }
+
+    /**
+     * @return the topic of the offer, null if there are MAX_SUBSCRIBERS already or the offer
+     *         has no topic and there are MAX_TOPICS already; unsubscribe must follow
+     */
+    Topic subscribe(int betOfferId) {
+        if (subscribers.incrementAndGet() > MAX_SUBSCRIBERS) {
+            subscribers.decrementAndGet();
+            return null;
+        }
+        if (started.compareAndSet(false, true)) {
+            Thread.ofPlatform().daemon().name("highstakes-publisher").start(this::run);
+        }
+        while (true) {
+            Topic topic = topics.get(betOfferId);
+            if (topic == null) {
+                topic = createTopic(betOfferId);
+                if (topic == null) {
+                    subscribers.decrementAndGet();
+                    return null;
+                }
+            }
+            topic.lock.lock();
+            try {
+                if (!topic.closed) {
+                    topic.subscribers++;
+                    return topic;
+                }
+            } finally {
+                topic.lock.unlock();
+            }
+            // dropped by the publisher meanwhile, a new one is created
+        }
+    }
+
+    /**
+     * @return the topic of the offer, created if there are less than MAX_TOPICS, else null
+     */
+    private Topic createTopic(int betOfferId) {
+        if (topicCount.incrementAndGet() > MAX_TOPICS) {
+            topicCount.decrementAndGet();
+            return null;
+        }
+        boolean[] created = { false };
+        Topic topic = topics.computeIfAbsent(betOfferId, id -> {
+            Topic newTopic = new Topic();
+            newTopic.snapshot = snapshot(stakeManager.getHighStakesBytes(id));
+            created[0] = true;
+            return newTopic;
+        });
+        if (!created[0]) {
+            topicCount.decrementAndGet();// created by another subscriber meanwhile
+        }
+        return topic;
+    }
+
+    void unsubscribe(Topic topic) {
+        topic.lock.lock();
+        try {
+            if (--topic.subscribers == 0) {
+                topic.idleSince = System.nanoTime();
+            }
+        } finally {
+            topic.lock.unlock();
+        }
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * Wait for a snapshot newer than the version
+     *
+     * @return the newer snapshot, the current one if none was published within the timeout
+     */
+    Snapshot await(Topic topic, long version, long timeoutNanos) throws InterruptedException {
+        Snapshot snapshot = topic.snapshot;
+        if (snapshot.version > version) {
+            return snapshot;
+        }
+        topic.lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while ((snapshot = topic.snapshot).version <= version && remaining > 0) {
+                remaining = topic.changed.awaitNanos(remaining);
+            }
+            return snapshot;
+        } finally {
+            topic.lock.unlock();
+        }
+    }
+
+    private Snapshot snapshot(byte[] csv) {
+        long version = versions.incrementAndGet();
+        String event = "id: " + version + "\ndata: " + new String(csv, StandardCharsets.US_ASCII) + "\n\n";
+        return new Snapshot(version, csv, event.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+                publish();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Publishing the high stakes failed", e);
+            }
+        }
+    }
+
+    /**
+     * One tick: a new snapshot for every topic whose top 20 changed, idle topics dropped
+     */
+    private void publish() {
+        if (replication.isStale()) {
+            return;// a follower too far behind keeps the last snapshots until it catches up
+        }
+        int[][] idle = { new int[16] };
+        int[] idleCount = { 0 };
+        long now = System.nanoTime();
+        topics.forEach((betOfferId, topic) -> {
+            // the board caches its csv, the same array as long as the top 20 didn't change
+            byte[] csv = stakeManager.getHighStakesBytes(betOfferId);
+            Snapshot current = topic.snapshot;
+            if (csv != current.csv) {
+                if (Arrays.equals(csv, current.csv)) {
+                    // only rendered again, keep the array to compare by reference next time
+                    topic.snapshot = new Snapshot(current.version, csv, current.event);
+                } else {
+                    topic.lock.lock();
+                    try {
+                        topic.snapshot = snapshot(csv);
+                        topic.changed.signalAll();
+                    } finally {
+                        topic.lock.unlock();
+                    }
+                    updates.increment();
+                }
+            }
+            if (topic.subscribers == 0 && now - topic.idleSince > IDLE_TOPIC_NANOS) {
+                if (idleCount[0] == idle[0].length) {
+                    idle[0] = Arrays.copyOf(idle[0], idleCount[0] * 2);
+                }
+                idle[0][idleCount[0]++] = betOfferId;
+            }
+        });
+        // all of them, topics are created faster than a few per tick
+        for (int i = 0; i < idleCount[0]; i++) {
+            Topic topic = topics.get(idle[0][i]);
+            if (topic == null) {
+                continue;
+            }
+            topic.lock.lock();
+            try {
+                // checked again, the look above was without the lock
+                if (topic.subscribers == 0 && now - topic.idleSince > IDLE_TOPIC_NANOS) {
+                    topic.closed = true;
+                    if (topics.remove(idle[0][i], topic)) {
+                        topicCount.decrementAndGet();
+                    }
+                }
+            } finally {
+                topic.lock.unlock();
+            }
+        }
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    public int getTopics() {
+        return topicCount.get();
+    }
+
+    /**
+     * Snapshots published because a top 20 changed
+     */
+    public long getUpdates() {
+        return updates.sum();
+    }
+}
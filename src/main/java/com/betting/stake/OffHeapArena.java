@@ -0,0 +1,59 @@
+package com.betting.stake;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bump allocator of off heap memory: big direct blocks are carved into slices.
+ *
+ * The stake history is kept forever, so nothing is ever given back: no free list, no
+ * fragmentation, and the garbage collector never scans or copies the data. The direct
+ * memory is bounded by -XX:MaxDirectMemorySize (defaults to -Xmx).
+ */
+class OffHeapArena {
+
+    private static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+    private static final OffHeapArena instance = new OffHeapArena();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private ByteBuffer block = ByteBuffer.allocateDirect(0);
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private OffHeapArena() {
+    }
+
+    static OffHeapArena getInstance() {
+        return instance;
+    }
+
+    /**
+     * A zeroed slice of native byte order, bytes must not exceed BLOCK_SIZE
+     */
+    ByteBuffer allocate(int bytes) {
+        lock.lock();
+        try {
+            if (block.remaining() < bytes) {
+                // the tail of the previous block is left unused
+                block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+                reservedBytes.addAndGet(BLOCK_SIZE);
+            }
+            ByteBuffer slice = block.slice(block.position(), bytes).order(ByteOrder.nativeOrder());
+            block.position(block.position() + bytes);
+            return slice;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Direct memory reserved so far
+     */
+    long reservedBytes() {
+        return reservedBytes.get();
+    }
+}
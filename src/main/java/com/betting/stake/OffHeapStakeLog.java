@@ -0,0 +1,99 @@
+package com.betting.stake;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off heap StakeLog: records of 16 bytes (customerId, stake, timestamp) in chunks carved
+ * from the OffHeapArena.
+ *
+ * Only the small chunk directory lives on the heap, so an indefinitely growing history
+ * doesn't drive GC cost or the heap limit. Same chunk growth and publication as
+ * HeapStakeLog.
+ */
+class OffHeapStakeLog implements StakeLog {
+
+    private static final int RECORD_BYTES = 16;
+
+    private static final int FIRST_CHUNK_SIZE = 16;
+
+    private static final int MAX_CHUNK_SIZE = 4096;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // replaced when a chunk is added, the chunks themselves are shared
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    // writer side cursor: current chunk and byte offset in it
+    private int chunk = -1;
+    private int offset = 0;
+
+    // records below size are fully written
+    private volatile int size = 0;
+
+    @Override
+    public void append(int customerId, int stake, long timestamp) {
+        appendLock.lock();
+        try {
+            put(customerId, stake, timestamp);
+            size = size + 1;// publish
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void appendAll(int customerId, int[] stakes, int from, int to, long timestamp) {
+        appendLock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                put(customerId, stakes[i], timestamp);
+            }
+            size = size + (to - from);// publish the whole batch
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void put(int customerId, int stake, long timestamp) {
+        ByteBuffer[] c = chunks;
+        if (chunk < 0 || offset == c[chunk].capacity()) {
+            c = addChunk(c);
+        }
+        ByteBuffer buffer = c[chunk];
+        buffer.putInt(offset, customerId);
+        buffer.putInt(offset + 4, stake);
+        buffer.putLong(offset + 8, timestamp);
+        offset += RECORD_BYTES;
+    }
+
+    private ByteBuffer[] addChunk(ByteBuffer[] c) {
+        int records = chunk < 0 ? FIRST_CHUNK_SIZE : Math.min(c[chunk].capacity() / RECORD_BYTES * 2, MAX_CHUNK_SIZE);
+        ByteBuffer[] grown = new ByteBuffer[chunk + 2];
+        System.arraycopy(c, 0, grown, 0, chunk + 1);
+        chunk++;
+        grown[chunk] = OffHeapArena.getInstance().allocate(records * RECORD_BYTES);
+        chunks = grown;
+        offset = 0;
+        return grown;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(int count, StakeConsumer consumer) {
+        ByteBuffer[] c = chunks;
+        int visited = 0;
+        for (int i = 0; visited < count; i++) {
+            ByteBuffer buffer = c[i];
+            int n = Math.min(buffer.capacity() / RECORD_BYTES, count - visited);
+            for (int j = 0, position = 0; j < n; j++, position += RECORD_BYTES) {
+                consumer.accept(buffer.getInt(position), buffer.getInt(position + 4), buffer.getLong(position + 8));
+            }
+            visited += n;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.betting.stake;
+
+/**
+ * Receives applied stakes together with their bet offer, one call per stake
+ */
+@FunctionalInterface
+public interface StakeChangeListener {
+    void onStake(int betOfferId, int customerId, int stake, long timestamp);
+}
@@ -0,0 +1,9 @@
+package com.betting.stake;
+
+/**
+ * Receives recorded stakes, one call per stake
+ */
+@FunctionalInterface
+public interface StakeConsumer {
+    void accept(int customerId, int stake, long timestamp);
+}
@@ -2,16 +2,26 @@ package com.betting.stake;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.Objects;
 
+import com.betting.Router;
+import com.betting.cluster.Cluster;
+import com.betting.replication.Replication;
 import com.betting.session.SessionManager;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 public class StakeHandler implements HttpHandler{
+
+    private static final String SESSION_KEY_PARAM = "sessionkey=";
     
     private final SessionManager sessionManager;
     private final StakeManager stakeStore;
+
+    private final Cluster cluster = Cluster.getInstance();
+
+    private final Replication replication = Replication.getInstance();
     
     public StakeHandler(SessionManager sessionManager, StakeManager stakeStore) {
         this.sessionManager = Objects.requireNonNull(sessionManager);
@@ -20,47 +30,40 @@ public class StakeHandler implements HttpHandler{
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        long parsed = Router.parse(exchange.getRequestURI().getRawPath());
+        if (Router.route(parsed) != Router.STAKE) {
+            exchange.sendResponseHeaders(400, 0);
+            exchange.close();
+            return;
+        }
+        handle(exchange, Router.id(parsed));
+    }
+
+    /**
+     * Handle a request already routed by Router, betOfferId is parsed from the path
+     */
+    public void handle(HttpExchange exchange, int betOfferId) throws IOException {
 
         if (!"POST".equals(exchange.getRequestMethod())) {
             exchange.sendResponseHeaders(405, 0);// 405 Method Not Allowed
+            exchange.close();
             return;
         }
 
         try {
             // Get session key from query params
             // Validate session key parameter
-            String query = exchange.getRequestURI().getQuery();
-            if (query == null || !query.contains("sessionkey=")) {
+            String query = exchange.getRequestURI().getRawQuery();
+            String sessionKey = sessionKey(query);
+            if (sessionKey == null) {
                 exchange.sendResponseHeaders(400, 0);//Bad Request
                 return;
             }
-            
-            String sessionKey = query.split("sessionkey=")[1];
-            if (sessionKey.isEmpty() || !sessionManager.isValidSession(sessionKey)) {
-                exchange.sendResponseHeaders(401, 0);//Unauthorized
-                return;
-            }
 
-            // Parse bet offer ID from path
-            // Parse and validate bet offer ID
-            String path = exchange.getRequestURI().getPath();
-            String[] parts = path.split("/");
-            if (parts.length < 2) {
-                exchange.sendResponseHeaders(400, 0);
-                return;
-            }
-            
-            int betOfferId;
-            try {
-                betOfferId = Integer.parseInt(parts[1]);
-            } catch (NumberFormatException e) {
-                exchange.sendResponseHeaders(400, 0);
-                return;
-            }
-            
             // Read and validate stake value
             InputStream is = exchange.getRequestBody();
-            String body = new String(is.readAllBytes());
+            byte[] bytes = is.readAllBytes();
+            String body = new String(bytes);
             if (body.isEmpty()) {
                 exchange.sendResponseHeaders(400, 0);
                 return;
@@ -74,15 +77,80 @@ public class StakeHandler implements HttpHandler{
                 return;
             }
             
-            // Store the stake
-            int customerId = this.sessionManager.getCustomerIdBySession(sessionKey);
-            stakeStore.recordStake(betOfferId, customerId, stake);
-            
-            exchange.sendResponseHeaders(200, 0);
+            int forwarded = forwarded(cluster, exchange, "POST", bytes);
+            if (forwarded == Cluster.FORGED) {
+                exchange.sendResponseHeaders(401, 0);
+                return;
+            }
+
+            exchange.sendResponseHeaders(recordStake(betOfferId, sessionKey, stake, forwarded == Cluster.FORWARDED), 0);
         } catch (Exception e) {
-            exchange.sendResponseHeaders(400, 0);
+            // the input is checked above, this is a server side failure like the journal
+            exchange.sendResponseHeaders(500, 0);
         } finally {
             exchange.close();
         }
     }
+
+    /**
+     * The value of the sessionkey query parameter, or null
+     */
+    /**
+     * Cluster.forwarded for the default server. The header is only looked up and the signed
+     * target only built on a clustered node, single nodes allocate nothing for it.
+     */
+    static int forwarded(Cluster cluster, HttpExchange exchange, String method, byte[] body) {
+        if (!cluster.isClustered()) {
+            return Cluster.NOT_FORWARDED;
+        }
+        String signature = exchange.getRequestHeaders().getFirst(Cluster.SIGNATURE_HEADER);
+        if (signature == null) {
+            return Cluster.NOT_FORWARDED;
+        }
+        URI uri = exchange.getRequestURI();
+        return cluster.forwarded(signature, method, Cluster.target(uri.getRawPath(), uri.getRawQuery()), body);
+    }
+
+    static String sessionKey(String query) {
+        if (query == null) {
+            return null;
+        }
+        int start = 0;
+        if (!query.startsWith(SESSION_KEY_PARAM)) {
+            start = query.indexOf("&" + SESSION_KEY_PARAM) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        start += SESSION_KEY_PARAM.length();
+        int end = query.indexOf('&', start);
+        return query.substring(start, end < 0 ? query.length() : end);
+    }
+
+    /**
+     * The transport independent part: validate the session and store the stake, or hand
+     * it to the node owning the bet offer
+     *
+     * @param forwarded the request came from another node, never forward it again
+     * @return the http status
+     */
+    public int recordStake(int betOfferId, String sessionKey, int stake, boolean forwarded) {
+        if (replication.isReplica()) {
+            return 405;// followers only take the stakes of their leader
+        }
+        if (!forwarded && !cluster.owns(betOfferId)) {
+            // the owner validates the token itself
+            return cluster.forwardStake(betOfferId, sessionKey, stake);
+        }
+
+        // validated and resolved in one step
+        int customerId = sessionKey.isEmpty() ? -1 : sessionManager.customerIdOf(sessionKey);
+        if (customerId == -1) {
+            return 401;//Unauthorized
+        }
+
+        // Store the stake
+        stakeStore.recordStake(betOfferId, customerId, stake);
+        return 200;
+    }
 }
@@ -0,0 +1,240 @@
+package com.betting.stake;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single writer ingestion: stakes are hashed by bet offer onto shards, each drained by its
+ * own thread, so the board and the log of an offer are only ever written by one thread and
+ * their locks are never contended by writers. Request threads enqueue and park until their
+ * stake is applied, a stake that failed to apply fails their request like in direct mode.
+ *
+ * Every shard is a bounded lock free ring (Vyukov's sequence per slot): producers claim a
+ * slot with one CAS on the tail, the owner drains in order without any CAS. A full ring
+ * pushes back on the producers, they yield until the owner catches up.
+ */
+class StakeIngest {
+
+    private static Logger logger = LoggerFactory.getLogger(StakeIngest.class);
+
+    private static final int RING_SIZE = 8192;// power of 2
+
+    private static final int MAX_DRAIN = 256;
+
+    private final Shard[] shards;
+
+    StakeIngest(int shardCount, StakeManager stakeManager) {
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(stakeManager);
+            Thread.ofPlatform().daemon().name("stake-ingest-" + i).start(shards[i]::run);
+        }
+    }
+
+    private int shardIndex(int betOfferId) {
+        // spread sequential ids
+        return Math.floorMod(betOfferId * 0x9E3779B9, shards.length);
+    }
+
+    /**
+     * Apply one stake on the shard of its bet offer and wait until it is applied
+     */
+    void apply(int betOfferId, int customerId, int stake, long timestamp) {
+        Shard shard = shards[shardIndex(betOfferId)];
+        Waiter waiter = new Waiter(Thread.currentThread());
+        shard.await(shard.submit(betOfferId, customerId, stake, timestamp, waiter, true), waiter);
+    }
+
+    /**
+     * Apply count stakes of the customer, betOfferIds grouped by offer, and wait until all
+     * of them are applied
+     */
+    void applyAll(int[] betOfferIds, int customerId, int[] stakes, int count, long timestamp) {
+        Waiter waiter = new Waiter(Thread.currentThread());
+        long[] tickets = new long[shards.length];
+        Arrays.fill(tickets, -1);
+        for (int i = 0; i < count; i++) {
+            int betOfferId = betOfferIds[i];
+            int shard = shardIndex(betOfferId);
+            // a shard applies in order, only the last stake of a group has to wake this thread
+            boolean last = i == count - 1 || betOfferIds[i + 1] != betOfferId;
+            tickets[shard] = shards[shard].submit(betOfferId, customerId, stakes[i], timestamp, waiter, last);
+        }
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (tickets[shard] >= 0) {
+                shards[shard].await(tickets[shard], waiter);
+            }
+        }
+    }
+
+    /**
+     * The request thread of submitted stakes, and the first failure among them
+     */
+    private static final class Waiter {
+
+        final Thread thread;
+
+        // written by the owner before it publishes applied
+        RuntimeException failure;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private static class Shard {
+
+        private static final int MASK = RING_SIZE - 1;
+
+        private final StakeManager stakeManager;
+
+        // sequence of each slot: == position when free for it, position + 1 once published
+        private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+
+        private final int[] betOfferIds = new int[RING_SIZE];
+        private final int[] customerIds = new int[RING_SIZE];
+        private final int[] stakes = new int[RING_SIZE];
+        private final long[] timestamps = new long[RING_SIZE];
+        private final Waiter[] waiters = new Waiter[RING_SIZE];
+        private final boolean[] wakes = new boolean[RING_SIZE];
+
+        private final AtomicLong tail = new AtomicLong();
+
+        // only the owner thread moves the head
+        private long head = 0;
+
+        // every position below has been applied
+        private volatile long applied = 0;
+
+        private volatile Thread owner;
+        private volatile boolean sleeping = false;
+
+        // the offer of the previous stake, hot offers skip the map lookup
+        private int lastOfferId;
+        private BetOfferStakes lastOffer;
+
+        Shard(StakeManager stakeManager) {
+            this.stakeManager = stakeManager;
+            for (int i = 0; i < RING_SIZE; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @param wake unpark the waiter once this stake is applied
+         * @return the ticket to await
+         */
+        long submit(int betOfferId, int customerId, int stake, long timestamp, Waiter waiter, boolean wake) {
+            long position = tail.get();
+            int slot;
+            while (true) {
+                slot = (int) (position & MASK);
+                long diff = sequences.get(slot) - position;
+                if (diff == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    Thread.yield();// full, wait for the owner to drain
+                }
+                position = tail.get();
+            }
+
+            betOfferIds[slot] = betOfferId;
+            customerIds[slot] = customerId;
+            stakes[slot] = stake;
+            timestamps[slot] = timestamp;
+            waiters[slot] = waiter;
+            wakes[slot] = wake;
+            sequences.set(slot, position + 1);// publish
+
+            if (sleeping) {
+                LockSupport.unpark(owner);
+            }
+            return position;
+        }
+
+        /**
+         * Wait until the ticket and every stake before it on this shard are applied
+         *
+         * @throws IllegalStateException if a stake of the waiter failed to apply
+         */
+        void await(long ticket, Waiter waiter) {
+            while (applied <= ticket) {
+                LockSupport.park(this);
+            }
+            if (waiter.failure != null) {
+                throw new IllegalStateException("Failed to apply a stake", waiter.failure);
+            }
+        }
+
+        void run() {
+            owner = Thread.currentThread();
+            while (true) {
+                int drained = drain();
+                if (drained == 0) {
+                    sleeping = true;
+                    // re-check after announcing, a producer may have published just before
+                    if (!published(head)) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private boolean published(long position) {
+            return sequences.get((int) (position & MASK)) == position + 1;
+        }
+
+        private int drain() {
+            long start = head;
+            long end = start;
+            while (end - start < MAX_DRAIN && published(end)) {
+                int slot = (int) (end & MASK);
+                try {
+                    int betOfferId = betOfferIds[slot];
+                    stakeManager.applyTo(offerFor(betOfferId), betOfferId, customerIds[slot], stakes[slot],
+                            timestamps[slot]);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to apply stake to bet offer " + betOfferIds[slot], e);
+                    if (waiters[slot].failure == null) {
+                        waiters[slot].failure = e;
+                    }
+                }
+                end++;
+            }
+            if (end == start) {
+                return 0;
+            }
+
+            head = end;
+            applied = end;
+            for (long position = start; position < end; position++) {
+                int slot = (int) (position & MASK);
+                Waiter waiter = waiters[slot];
+                boolean wake = wakes[slot];
+                waiters[slot] = null;
+                sequences.set(slot, position + RING_SIZE);// free for the next round
+                if (wake) {
+                    LockSupport.unpark(waiter.thread);
+                }
+            }
+            return (int) (end - start);
+        }
+
+        private BetOfferStakes offerFor(int betOfferId) {
+            // an evicted offer is faulted back in as a new object
+            if (lastOffer == null || lastOfferId != betOfferId || lastOffer.evicted) {
+                lastOffer = stakeManager.offerFor(betOfferId);
+                lastOfferId = betOfferId;
+            }
+            return lastOffer;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.betting.stake;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only write-ahead log of recorded stakes, with group commit.
+ *
+ * Appenders copy their record into the pending batch and get a sequence number back, a
+ * single flusher thread writes the whole batch and forces it to disk once, then wakes up
+ * everybody waiting for a sequence of that batch: one fsync covers all concurrent stakes.
+ *
+ * The log is split in numbered segments, a snapshot covers every segment before the one
+ * it was taken at, see StakePersistence.
+ *
+ * Record (little endian): betOfferId int, customerId int, stake int, timestamp long, crc32c int
+ */
+class StakeJournal {
+
+    private static Logger logger = LoggerFactory.getLogger(StakeJournal.class);
+
+    static final int RECORD_BYTES = 24;
+
+    private static final int CHECKED_BYTES = 20;
+
+    private static final int BATCH_BYTES = RECORD_BYTES * 8192;
+
+    private final Path directory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition batchWritten = lock.newCondition();
+
+    // appenders fill pending, the flusher writes flushing, then they are swapped
+    private ByteBuffer pending = newBatch();
+    private ByteBuffer flushing = newBatch();
+
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+
+    private boolean rotating = false;
+    private volatile boolean closed = false;
+    // why the flusher closed the journal, null after a normal close
+    private volatile IOException failure;
+
+    private FileChannel channel;
+    private long segment;
+
+    private final CRC32C crc = new CRC32C();
+
+    private final Thread flusher;
+
+    StakeJournal(Path directory, long segment) throws IOException {
+        this.directory = directory;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.flusher = Thread.ofPlatform().name("stake-journal-flusher").daemon().start(this::flushLoop);
+    }
+
+    static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("wal-%010d.log", segment));
+    }
+
+    /**
+     * Create the segment, durable with its directory entry before any record is acknowledged
+     */
+    private FileChannel openSegment(long segment) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            StakePersistence.syncDirectory(directory);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        return opened;
+    }
+
+    private static ByteBuffer newBatch() {
+        return ByteBuffer.allocateDirect(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Add the record to the pending batch
+     *
+     * @return the sequence to wait for with awaitDurable
+     */
+    long append(int betOfferId, int customerId, int stake, long timestamp) {
+        lock.lock();
+        try {
+            put(betOfferId, customerId, stake, timestamp);
+            batchReady.signal();
+            return appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add the records of stakes[from, to) of one customer on one bet offer, taking the lock once
+     *
+     * @return the sequence of the last record, to wait for with awaitDurable
+     */
+    long appendAll(int betOfferId, int customerId, int[] stakes, int from, int to, long timestamp) {
+        lock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                put(betOfferId, customerId, stakes[i], timestamp);
+            }
+            batchReady.signal();
+            return appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(int betOfferId, int customerId, int stake, long timestamp) {
+        // back pressure: wait for the flusher if the batch is full
+        while (rotating || pending.remaining() < RECORD_BYTES) {
+            checkOpen();
+            batchReady.signal();
+            batchWritten.awaitUninterruptibly();
+        }
+        checkOpen();
+        int start = pending.position();
+        pending.putInt(betOfferId).putInt(customerId).putInt(stake).putLong(timestamp);
+        crc.reset();
+        crc.update(pending.slice(start, CHECKED_BYTES));
+        pending.putInt((int) crc.getValue());
+        ++appendedSeq;
+    }
+
+    /**
+     * Block until the record of the sequence has been forced to disk
+     *
+     * @throws UncheckedIOException if the journal failed, the stake may not be durable
+     */
+    void awaitDurable(long seq) {
+        lock.lock();
+        try {
+            while (durableSeq < seq) {
+                checkOpen();
+                batchWritten.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Stake journal failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Stake journal closed");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long batchSeq;
+            ByteBuffer batch;
+            FileChannel target;
+            lock.lock();
+            try {
+                while (pending.position() == 0) {
+                    if (closed) {
+                        return;
+                    }
+                    batchReady.awaitUninterruptibly();
+                }
+                batch = pending;
+                pending = flushing;
+                flushing = batch;
+                batchSeq = appendedSeq;
+                target = channel;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    target.write(batch);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                // without a durable log no stake can be acknowledged any more
+                logger.error("Failed to write the stake journal, closing it", e);
+                failure = e;
+                closed = true;
+            } finally {
+                batch.clear();
+            }
+
+            lock.lock();
+            try {
+                if (!closed) {
+                    durableSeq = batchSeq;
+                }
+                batchWritten.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Switch to the next segment once everything appended so far is durable. The caller
+     * must make sure nobody appends meanwhile.
+     *
+     * @return the new segment
+     */
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            rotating = true;
+            while (durableSeq < appendedSeq) {
+                checkOpen();
+                batchWritten.awaitUninterruptibly();
+            }
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            return segment;
+        } finally {
+            rotating = false;
+            batchWritten.signalAll();
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            while (durableSeq < appendedSeq && !closed) {
+                batchWritten.awaitUninterruptibly();
+            }
+            closed = true;
+            batchReady.signalAll();
+            batchWritten.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replay the records of a segment, stops at the first torn or corrupted record
+     *
+     * @return number of records replayed
+     */
+    static long replay(Path file, StakeRecordConsumer consumer) throws IOException {
+        long count = 0;
+        CRC32C check = new CRC32C();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            while (in.read(buffer) > 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < RECORD_BYTES) {
+                    // a torn record at the end of the segment was never acknowledged
+                    break;
+                }
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    int start = buffer.position();
+                    check.reset();
+                    check.update(buffer.slice(start, CHECKED_BYTES));
+                    if (buffer.getInt(start + CHECKED_BYTES) != (int) check.getValue()) {
+                        logger.warn("Corrupted record in {} after {} records, ignoring the rest", file, count);
+                        return count;
+                    }
+                    consumer.accept(buffer.getInt(start), buffer.getInt(start + 4), buffer.getInt(start + 8),
+                            buffer.getLong(start + 12));
+                    buffer.position(start + RECORD_BYTES);
+                    count++;
+                }
+                buffer.compact();
+            }
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    interface StakeRecordConsumer {
+        void accept(int betOfferId, int customerId, int stake, long timestamp);
+    }
+}
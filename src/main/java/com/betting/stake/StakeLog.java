@@ -0,0 +1,35 @@
+package com.betting.stake;
+
+/**
+ * Append-only log of all stakes of one bet offer, kept forever.
+ *
+ * Appending is O(1) at a cursor, writers may be concurrent, readers are lock free and only
+ * see fully written records.
+ */
+interface StakeLog {
+
+    void append(int customerId, int stake, long timestamp);
+
+    /**
+     * Append stakes[from, to) of one customer, implementations take their lock once
+     */
+    default void appendAll(int customerId, int[] stakes, int from, int to, long timestamp) {
+        for (int i = from; i < to; i++) {
+            append(customerId, stakes[i], timestamp);
+        }
+    }
+
+    int size();
+
+    /**
+     * Visit the stakes in append order, the ones appended during the iteration are not visited
+     */
+    default void forEach(StakeConsumer consumer) {
+        forEach(size(), consumer);
+    }
+
+    /**
+     * Visit the first count stakes in append order, count must not exceed size()
+     */
+    void forEach(int count, StakeConsumer consumer);
+}
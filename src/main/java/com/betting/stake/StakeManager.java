@@ -1,35 +1,65 @@
 package com.betting.stake;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.betting.Application;
+import com.betting.collection.IntObjConcurrentMap;
+
 public class StakeManager {
 
-    private static Logger logger = LoggerFactory.getLogger(StakeManager.class.getName());
+    private static Logger logger = LoggerFactory.getLogger(StakeManager.class);
 
-    // Map<BetOfferId, Map<CustomerId, MaxStake>>
-    private final ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, Integer>> highStakes = new ConcurrentHashMap<>();
+    // offers moved to the cold storage under one hold of the writers
+    private static final int EVICTION_BATCH = 256;
 
-    // Map<BetOfferId, Map<"customerId, int[Stake]">>, just for keep track of all
-    // stakes
-    private final ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, int[]>> betOfferToStakes = new ConcurrentHashMap<>();
+    // striped by bet offer, power of 2
+    private static final int PUBLISH_LOCKS = 256;
 
-    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    // Map<BetOfferId, top 20 of max stake per customer + append-only log of all stakes>
+    // primitive keyed map, no boxing of ids
+    private final IntObjConcurrentMap<BetOfferStakes> betOffers = new IntObjConcurrentMap<>();
 
     // Singleton pattern
     private static StakeManager instance = new StakeManager();
 
-    private static int ORIGINAL_STAKE_SIZE = 10;
+    private static final byte[] EMPTY = new byte[0];
+
+    // write-ahead log, null unless persistence is enabled (-DDATA_DIR)
+    private volatile StakeJournal journal;
+
+    // single writer shards, null unless enabled (-DSTAKE_INGEST_SHARDS)
+    private volatile StakeIngest ingest;
+
+    // receives every applied stake in order, null unless this is a replication leader
+    private volatile StakeChangeListener changeListener;
+
+    // bet offers evicted to disk, null unless enabled (-DCOLD_STORAGE_DIR)
+    private volatile ColdStore cold;
+
+    // journal append + apply are atomic against a snapshot capture, and against an
+    // eviction to the cold storage; not taken by writers without journal and cold storage
+    private final ReentrantReadWriteLock persistLock = new ReentrantReadWriteLock();
+
+    // apply + change publication of one bet offer, so the stream has the order of its log;
+    // copyStakes takes them all to capture the logs and the stream position consistently
+    private final ReentrantLock[] publishLocks = new ReentrantLock[PUBLISH_LOCKS];
 
     private StakeManager() {
-        // clean high stakes every minute to reduce memory consumption
-        cleaner.scheduleAtFixedRate(this::cleanHighStakes, 1, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < PUBLISH_LOCKS; i++) {
+            publishLocks[i] = new ReentrantLock();
+        }
     }
 
     public static StakeManager getInstance() {
@@ -42,85 +72,590 @@ public class StakeManager {
             return;
         }
 
-        highStakes.compute(betOfferId, (k, v) -> {
-            if (v == null) {
-                v = new ConcurrentHashMap<>();
+        long timestamp = System.currentTimeMillis();
+
+        StakeJournal journal = this.journal;
+        if (journal == null && cold == null) {
+            // published while applied, if this is a replication leader
+            apply(betOfferId, customerId, stake, timestamp);
+            return;
+        }
+
+        long seq = 0;
+        persistLock.readLock().lock();
+        try {
+            // in ingest mode the lock is held until the shard has applied the stake
+            if (journal != null) {
+                seq = journal.append(betOfferId, customerId, stake, timestamp);
             }
-            // Store only the maximum stake per customer
-            v.merge(customerId, stake, Math::max);
-            return v;
-        });
+            // published while applied
+            apply(betOfferId, customerId, stake, timestamp);
+        } finally {
+            persistLock.readLock().unlock();
+        }
+        if (journal != null) {
+            // group commit: only acknowledged once its batch is on disk
+            journal.awaitDurable(seq);
+        }
+    }
 
-        // we store all stakes int int[] other then List<Integer> to reduce memory
-        // consumption
-        betOfferToStakes.compute(betOfferId, (k, v) -> {
-            if (v == null) {
-                v = new ConcurrentHashMap<Integer, int[]>();
-                int[] stakes = new int[ORIGINAL_STAKE_SIZE];
-                stakes[0] = stake;
-                v.put(customerId, stakes);
-            } else {
-                int[] stakes = v.get(customerId);
-                if (stakes == null) {
-                    stakes = new int[ORIGINAL_STAKE_SIZE];
-                    stakes[0] = stake;
-                    v.put(customerId, stakes);
-                } else {
-                    boolean isFull = true;
-                    for (int i = 0; i < stakes.length; i++) {
-                        if (stakes[i] == 0) {
-                            stakes[i] = stake;
-                            isFull = false;
-                            break;
-                        }
-                    }
-                    if (isFull) {
-                        int[] newStakes = new int[stakes.length + ORIGINAL_STAKE_SIZE];
-                        System.arraycopy(stakes, 0, newStakes, 0, stakes.length);
-                        newStakes[stakes.length] = stake;
-                        v.put(customerId, newStakes);
-                    }
+    /**
+     * Record count stakes of one customer at once, betOfferIds[i] and stakes[i] being one
+     * stake. The stakes are grouped per bet offer, so each offer is looked up, its board
+     * and log locked and the journal appended once per group rather than once per stake.
+     * The arrays are reordered by bet offer, stakes of one offer keep their order.
+     */
+    public void recordStakes(int customerId, int[] betOfferIds, int[] stakes, int count) {
+
+        if (customerId == -1 || count == 0) {
+            return;
+        }
+
+        groupByOffer(betOfferIds, stakes, count);
+
+        long timestamp = System.currentTimeMillis();
+
+        StakeJournal journal = this.journal;
+        StakeIngest ingest = this.ingest;
+        if (journal == null && cold == null) {
+            if (ingest != null) {
+                ingest.applyAll(betOfferIds, customerId, stakes, count, timestamp);
+                return;
+            }
+            for (int from = 0, to; from < count; from = to) {
+                to = groupEnd(betOfferIds, from, count);
+                applyStakes(betOfferIds[from], customerId, stakes, from, to, timestamp);
+            }
+            return;
+        }
+
+        long seq = 0;
+        persistLock.readLock().lock();
+        try {
+            for (int from = 0, to; from < count; from = to) {
+                to = groupEnd(betOfferIds, from, count);
+                if (journal != null) {
+                    seq = journal.appendAll(betOfferIds[from], customerId, stakes, from, to, timestamp);
+                }
+                if (ingest == null) {
+                    applyStakes(betOfferIds[from], customerId, stakes, from, to, timestamp);
                 }
             }
-            return v;
+            if (ingest != null) {
+                ingest.applyAll(betOfferIds, customerId, stakes, count, timestamp);
+            }
+        } finally {
+            persistLock.readLock().unlock();
+        }
+        if (journal != null) {
+            // one wait for the whole batch, the last record is the last one to be durable
+            journal.awaitDurable(seq);
+        }
+    }
+
+    private void applyStakes(int betOfferId, int customerId, int[] stakes, int from, int to, long timestamp) {
+        BetOfferStakes offer = offerFor(betOfferId);
+
+        StakeChangeListener changes = this.changeListener;
+        if (changes == null) {
+            offer.applyAll(customerId, stakes, from, to, timestamp);
+            return;
+        }
+        ReentrantLock lock = publishLock(betOfferId);
+        lock.lock();
+        try {
+            offer.applyAll(customerId, stakes, from, to, timestamp);
+            for (int i = from; i < to; i++) {
+                changes.onStake(betOfferId, customerId, stakes[i], timestamp);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stable sort of the pairs by bet offer, on a packed copy (betOfferId, index)
+     */
+    private static void groupByOffer(int[] betOfferIds, int[] stakes, int count) {
+        long[] order = new long[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) betOfferIds[i] << 32 | i;
+            sorted &= i == 0 || betOfferIds[i - 1] <= betOfferIds[i];
+        }
+        if (sorted) {
+            return;
+        }
+        Arrays.sort(order);
+        int[] original = Arrays.copyOf(stakes, count);
+        for (int i = 0; i < count; i++) {
+            betOfferIds[i] = (int) (order[i] >> 32);
+            stakes[i] = original[(int) order[i]];
+        }
+    }
+
+    private static int groupEnd(int[] betOfferIds, int from, int count) {
+        int to = from + 1;
+        while (to < count && betOfferIds[to] == betOfferIds[from]) {
+            to++;
+        }
+        return to;
+    }
+
+    void applyStake(int betOfferId, int customerId, int stake, long timestamp) {
+        applyTo(offerFor(betOfferId), betOfferId, customerId, stake, timestamp);
+    }
+
+    /**
+     * Apply the stake to the offer and publish it to the change listener in one critical
+     * section of the offer, two writers of an offer publish in the order they applied
+     */
+    void applyTo(BetOfferStakes offer, int betOfferId, int customerId, int stake, long timestamp) {
+        StakeChangeListener changes = this.changeListener;
+        if (changes == null) {
+            offer.apply(customerId, stake, timestamp);
+            return;
+        }
+        ReentrantLock lock = publishLock(betOfferId);
+        lock.lock();
+        try {
+            offer.apply(customerId, stake, timestamp);
+            changes.onStake(betOfferId, customerId, stake, timestamp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock publishLock(int betOfferId) {
+        return publishLocks[(betOfferId * 0x9E3779B9) >>> 24];// spread sequential ids
+    }
+
+    /**
+     * Apply on the owner thread of the shard in ingest mode, on the calling thread otherwise
+     */
+    private void apply(int betOfferId, int customerId, int stake, long timestamp) {
+        StakeIngest ingest = this.ingest;
+        if (ingest != null) {
+            ingest.apply(betOfferId, customerId, stake, timestamp);
+        } else {
+            applyStake(betOfferId, customerId, stake, timestamp);
+        }
+    }
+
+    /**
+     * Publish every stake applied from now on to the listener, in the order of application
+     * of each bet offer. Called once at startup.
+     */
+    public void setChangeListener(StakeChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Pass every stake recorded so far to the consumer, offer by offer, and return the
+     * position mark() had at that moment: exactly the stakes published to the change listener
+     * before it. Writers are only held back while the log sizes are captured: with all
+     * publish locks held no stake is applied but not yet published.
+     */
+    public long copyStakes(LongSupplier mark, StakeChangeListener consumer) {
+        Capture capture;
+        persistLock.writeLock().lock();
+        int locked = 0;
+        try {
+            // in index order, after the persistLock like the writers
+            for (; locked < PUBLISH_LOCKS; locked++) {
+                publishLocks[locked].lock();
+            }
+            capture = collect(mark.getAsLong());
+        } finally {
+            while (locked > 0) {
+                publishLocks[--locked].unlock();
+            }
+            persistLock.writeLock().unlock();
+        }
+
+        // the logs are append-only, their first counts[i] stakes don't change any more
+        try (capture) {
+            for (int i = 0; i < capture.offers(); i++) {
+                int betOfferId = capture.offerIds()[i];
+                capture.logs()[i].forEach(capture.counts()[i], (customerId, stake, timestamp) -> consumer
+                        .onStake(betOfferId, customerId, stake, timestamp));
+            }
+        }
+        return capture.segment();
+    }
+
+    /**
+     * Apply a stake recorded elsewhere, with its original timestamp (replication follower)
+     */
+    public void applyReplicated(int betOfferId, int customerId, int stake, long timestamp) {
+        if (cold == null) {
+            applyStake(betOfferId, customerId, stake, timestamp);
+            return;
+        }
+        persistLock.readLock().lock();
+        try {
+            applyStake(betOfferId, customerId, stake, timestamp);
+        } finally {
+            persistLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forget all bet offers, before a replication follower loads a new copy
+     */
+    public void clear() {
+        int[] ids = new int[betOffers.size() + 16];
+        int[] count = { 0 };
+        betOffers.forEach((betOfferId, offer) -> {
+            if (count[0] < ids.length) {
+                ids[count[0]++] = betOfferId;
+            }
         });
+        for (int i = 0; i < count[0]; i++) {
+            betOffers.remove(ids[i]);
+        }
+        ColdStore cold = this.cold;
+        if (cold != null) {
+            cold.clear();
+        }
     }
 
-    public String getHighStakes(int betOfferId) {
-        ConcurrentHashMap<Integer, Integer> offerStakes = highStakes.get(betOfferId);
-        if (offerStakes == null || offerStakes.isEmpty()) {
-            return "";
+    /**
+     * Hand all writes to shardCount single writer threads, see StakeIngest.
+     * Called once at startup, after the recovery.
+     */
+    public void startIngest(int shardCount) {
+        this.ingest = new StakeIngest(shardCount, this);
+    }
+
+    /**
+     * The offer to write to, faulted back in from the cold storage if it was evicted.
+     * Writers hold the persistLock read lock while the cold storage is enabled.
+     */
+    BetOfferStakes offerFor(int betOfferId) {
+        BetOfferStakes offer = betOffers.get(betOfferId);
+        if (offer != null) {
+            return offer;
         }
+        ColdStore cold = this.cold;
+        if (cold != null) {
+            ColdStakeLog coldLog = cold.get(betOfferId);
+            if (coldLog != null) {
+                return faultIn(cold, coldLog);
+            }
+        }
+        return betOffers.computeIfAbsent(betOfferId, k -> new BetOfferStakes(newStakeLog()));
+    }
 
-        // Sort entries by stake descending, then take top 20
-        return offerStakes.entrySet().stream()
-                .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed())
-                .limit(20)
-                .map(e -> e.getKey() + "=" + e.getValue())
-                .reduce((a, b) -> a + "," + b)// csv format
-                .orElse("");
+    /**
+     * The offer to read from, null if it has no stake. Evicted offers are faulted back in,
+     * every read stamps the offer with the sweep epoch for the LRU of the idle offers.
+     */
+    private BetOfferStakes offerToRead(int betOfferId) {
+        BetOfferStakes offer = betOffers.get(betOfferId);
+        ColdStore cold = this.cold;
+        if (cold == null) {
+            return offer;
+        }
+        if (offer == null) {
+            if (cold.get(betOfferId) == null) {
+                return null;
+            }
+            // no eviction can commit while reading the segment
+            persistLock.readLock().lock();
+            try {
+                ColdStakeLog coldLog = cold.get(betOfferId);
+                offer = coldLog != null ? faultIn(cold, coldLog) : betOffers.get(betOfferId);
+            } finally {
+                persistLock.readLock().unlock();
+            }
+            if (offer == null) {
+                return null;
+            }
+        }
+        int epoch = cold.epoch();
+        if (offer.lastRead != epoch) {
+            offer.lastRead = epoch;// written once per sweep at most, the cache line stays shared
+        }
+        return offer;
+    }
+
+    /**
+     * Load an evicted offer back into memory, with the persistLock read lock held
+     */
+    private BetOfferStakes faultIn(ColdStore cold, ColdStakeLog coldLog) {
+        BetOfferStakes loaded = new BetOfferStakes(newStakeLog());
+        try {
+            coldLog.forEach(loaded::apply);
+        } catch (UncheckedIOException e) {
+            // a concurrent fault-in of the same offer may have made the segment obsolete
+            BetOfferStakes offer = betOffers.get(coldLog.betOfferId);
+            if (offer != null) {
+                return offer;
+            }
+            logger.error("Failed to load the cold bet offer " + coldLog.betOfferId, e);
+            throw e;
+        }
+        loaded.lastRead = cold.epoch();
+        BetOfferStakes offer = betOffers.computeIfAbsent(coldLog.betOfferId, k -> loaded);
+        if (offer == loaded) {
+            cold.faulted(coldLog);
+        }
+        return offer;
+    }
+
+    /**
+     * Evict the bet offers without a stake for coldAfterMillis to compressed segments in
+     * directory, except the cachedOffers most recently read ones. Called once at startup,
+     * after the recovery.
+     */
+    public void enableColdStorage(Path directory, long coldAfterMillis, int cachedOffers) throws IOException {
+        ColdStore cold = new ColdStore(directory, coldAfterMillis, cachedOffers);
+        this.cold = cold;
+        long interval = Math.clamp(coldAfterMillis / 4, 1000, 60_000);
+        Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory()).scheduleWithFixedDelay(() -> {
+            try {
+                evictIdle(cold, (int) Math.max(1, coldAfterMillis / interval));
+            } catch (RuntimeException e) {
+                logger.error("Cold storage sweep failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Clean high stakes every minute to reduce memory consumption
-     * Remove all stakes except top 20
+     * One sweep: the idle offers read in the last readEpochs sweeps are kept, most recent
+     * first up to cachedOffers, all other idle offers are written out and dropped
      */
-    private void cleanHighStakes() {
+    private void evictIdle(ColdStore cold, int readEpochs) {
+        int epoch = cold.nextEpoch();
+        long idleBefore = System.currentTimeMillis() - cold.coldAfterMillis;
 
-        highStakes.entrySet().stream().parallel().forEach(entry -> {
+        int capacity = betOffers.size() + 16;
+        int[] ids = new int[capacity];
+        BetOfferStakes[] idle = new BetOfferStakes[capacity];
+        // (lastRead, index), the most recently read first once sorted descending
+        long[] order = new long[capacity];
+        int[] count = { 0 };
+        betOffers.forEach((betOfferId, offer) -> {
+            if (offer.lastWrite < idleBefore && count[0] < capacity) {
+                int i = count[0]++;
+                ids[i] = betOfferId;
+                idle[i] = offer;
+                order[i] = (long) offer.lastRead << 32 | i;
+            }
+        });
+        Arrays.sort(order, 0, count[0]);
 
-            int betOfferId = entry.getKey();
-            int oriSize = entry.getValue().size();
+        int cached = 0;
+        int[] batchIds = new int[EVICTION_BATCH];
+        BetOfferStakes[] batch = new BetOfferStakes[EVICTION_BATCH];
+        StakeLog[] logs = new StakeLog[EVICTION_BATCH];
+        int[] counts = new int[EVICTION_BATCH];
+        int batched = 0;
+        for (int k = count[0] - 1; k >= 0; k--) {
+            int lastRead = (int) (order[k] >> 32);
+            int i = (int) order[k];
+            if (lastRead != ColdStore.NEVER && epoch - lastRead <= readEpochs && cached < cold.cachedOffers) {
+                cached++;
+                continue;
+            }
+            batchIds[batched] = ids[i];
+            batch[batched] = idle[i];
+            logs[batched] = idle[i].log;
+            counts[batched] = idle[i].log.size();
+            if (++batched == EVICTION_BATCH) {
+                evict(cold, batchIds, batch, logs, counts, batched);
+                batched = 0;
+            }
+        }
+        if (batched > 0) {
+            evict(cold, batchIds, batch, logs, counts, batched);
+        }
 
-            ConcurrentHashMap<Integer, Integer> stakes = entry.getValue();
-            if (stakes.size() > 20) {
-                stakes.entrySet().stream().sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed())
-                        .skip(20)// required to keep top 20
-                        .forEach(e -> stakes.remove(e.getKey()));
+        persistLock.readLock().lock();
+        try {
+            cold.deleteObsolete();
+        } finally {
+            persistLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write the offers to one segment, then drop the ones without a stake since then
+     */
+    private void evict(ColdStore cold, int[] ids, BetOfferStakes[] offers, StakeLog[] logs, int[] counts,
+            int batched) {
+        ColdStakeLog[] written;
+        try {
+            written = cold.write(ids, logs, counts, batched);
+        } catch (IOException e) {
+            logger.error("Failed to evict " + batched + " bet offers", e);
+            return;
+        }
+        persistLock.writeLock().lock();
+        try {
+            for (int i = 0; i < batched; i++) {
+                BetOfferStakes offer = offers[i];
+                if (betOffers.get(ids[i]) == offer && offer.log.size() == counts[i]) {
+                    cold.commit(written[i]);
+                    betOffers.remove(ids[i], offer);
+                    offer.evicted = true;
+                } else {
+                    cold.discard(written[i]);
+                }
             }
+        } finally {
+            persistLock.writeLock().unlock();
+        }
+    }
+
+    void attachJournal(StakeJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * What a snapshot has to contain: the first counts[i] stakes of logs[i] for every
+     * offer, which are exactly the stakes journaled before segment. Closing it lets the
+     * cold segments among the logs be deleted.
+     */
+    record Capture(long segment, int[] offerIds, StakeLog[] logs, int[] counts, int offers, ColdStore pinned)
+            implements AutoCloseable {
 
-            int cleanedSize = stakes.size();
-            logger.info("Cleaned high stakes for bet offer {}: {} -> {}", betOfferId, oriSize, cleanedSize);
+        @Override
+        public void close() {
+            if (pinned != null) {
+                pinned.unpin();
+            }
+        }
+    }
+
+    /**
+     * Rotate the journal and capture the size of every log, with all writers held back
+     * for that short moment only
+     */
+    Capture capture() throws IOException {
+        persistLock.writeLock().lock();
+        try {
+            return collect(journal.rotate());
+        } finally {
+            persistLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The logs of all offers with stakes, in memory and cold, with the persistLock write
+     * lock held
+     */
+    private Capture collect(long segment) {
+        // no bet offer can be evicted while the writers are held back. Without journal and
+        // cold storage an offer can still be added, but it has no stakes before its writer
+        // gets the publish lock, and all the offers with stakes are counted by size()
+        ColdStore cold = this.cold;
+        int capacity = betOffers.size() + (cold == null ? 0 : cold.size());
+        int[] offerIds = new int[capacity];
+        StakeLog[] logs = new StakeLog[capacity];
+        int[] counts = new int[capacity];
+        int[] offers = { 0 };
+        betOffers.forEach((betOfferId, offer) -> {
+            int count = offer.log.size();
+            if (count == 0) {
+                return;
+            }
+            int i = offers[0]++;
+            offerIds[i] = betOfferId;
+            logs[i] = offer.log;
+            counts[i] = count;
         });
+        if (cold != null) {
+            cold.pin();
+            cold.forEach((betOfferId, coldLog) -> {
+                int i = offers[0]++;
+                offerIds[i] = betOfferId;
+                logs[i] = coldLog;
+                counts[i] = coldLog.size();
+            });
+        }
+        return new Capture(segment, offerIds, logs, counts, offers[0], cold);
+    }
+
+    /**
+     * The history storage is selected by -DSTAKE_HISTORY_STORAGE=heap|offheap|compact
+     */
+    private static StakeLog newStakeLog() {
+        if (Application.STAKE_HISTORY_OFF_HEAP) {
+            return new OffHeapStakeLog();
+        }
+        if (Application.STAKE_HISTORY_COMPACT) {
+            return new CompactStakeLog();
+        }
+        return new HeapStakeLog();
+    }
+
+    /**
+     * Visit all stakes of the bet offer in the order they were recorded
+     */
+    public void forEachStake(int betOfferId, StakeConsumer consumer) {
+        BetOfferStakes offer = offerToRead(betOfferId);
+        if (offer != null) {
+            offer.log.forEach(consumer);
+        }
+    }
+
+    public boolean isColdStorageEnabled() {
+        return cold != null;
+    }
+
+    public int getColdOffers() {
+        ColdStore cold = this.cold;
+        return cold == null ? 0 : cold.size();
+    }
+
+    public long getColdBytes() {
+        ColdStore cold = this.cold;
+        return cold == null ? 0 : cold.getBytes();
+    }
+
+    public long getColdEvictions() {
+        ColdStore cold = this.cold;
+        return cold == null ? 0 : cold.getEvictions();
+    }
+
+    public long getColdFaults() {
+        ColdStore cold = this.cold;
+        return cold == null ? 0 : cold.getFaults();
+    }
+
+    /**
+     * counts[n] is the number of bet offers in memory with n entries in their top 20, for the metrics
+     */
+    public long[] leaderboardSizeCounts() {
+        long[] counts = new long[HighStakesBoard.CAPACITY + 1];
+        betOffers.forEach((betOfferId, offer) -> counts[offer.board.size()]++);
+        return counts;
+    }
+
+    /**
+     * Release the cached csv of every leaderboard, called when the heap runs short
+     */
+    public void dropRenderedHighStakes() {
+        betOffers.forEach((betOfferId, offer) -> offer.board.dropRendered());
+    }
+
+    public String getHighStakes(int betOfferId) {
+        return new String(getHighStakesBytes(betOfferId), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The cached csv of the top 20, only re-rendered after a write changed the top 20
+     * Shared between readers, must not be modified
+     */
+    public byte[] getHighStakesBytes(int betOfferId) {
+        BetOfferStakes offer = offerToRead(betOfferId);
+        if (offer == null) {
+            return EMPTY;
+        }
+
+        // the board is always sorted by stake descending, no need to sort here
+        return offer.board.renderBytes();
     }
-}
\ No newline at end of file
+}
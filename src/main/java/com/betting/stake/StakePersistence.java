@@ -0,0 +1,155 @@
+package com.betting.stake;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.metrics.Metrics;
+
+/**
+ * Durability of the stakes across restarts: a write-ahead log (StakeJournal) plus
+ * periodic memory mapped snapshots (StakeSnapshot) in one data directory.
+ *
+ * snapshot-N covers every stake journaled in the segments before wal-N, so recovery loads
+ * the latest snapshot and replays only the segments from N on. Older files are deleted
+ * once a newer snapshot is on disk.
+ *
+ * Every file created or renamed is followed by a sync of the directory, otherwise a crash
+ * could keep a later deletion but lose the new name.
+ */
+public class StakePersistence {
+
+    private static Logger logger = LoggerFactory.getLogger(StakePersistence.class);
+
+    private final Path directory;
+
+    private final int snapshotIntervalMinutes;
+
+    private final StakeManager stakeManager;
+
+    private final ScheduledExecutorService snapshotter = Executors
+            .newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+
+    private StakeJournal journal;
+
+    public StakePersistence(Path directory, int snapshotIntervalMinutes, StakeManager stakeManager) {
+        this.directory = directory;
+        this.snapshotIntervalMinutes = snapshotIntervalMinutes;
+        this.stakeManager = stakeManager;
+    }
+
+    /**
+     * Recover the stakes from the data directory, then journal every new stake
+     * Must be called before any stake is recorded
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+
+        long start = System.nanoTime();
+
+        long snapshotSegment = latest("snapshot-", ".snap");
+        long loaded = 0;
+        if (snapshotSegment >= 0) {
+            loaded = StakeSnapshot.load(StakeSnapshot.snapshotPath(directory, snapshotSegment), stakeManager);
+        }
+
+        long replayed = 0;
+        long lastSegment = Math.max(snapshotSegment, 0);
+        for (long segment : segments("wal-", ".log")) {
+            if (segment >= snapshotSegment) {
+                replayed += StakeJournal.replay(StakeJournal.segmentPath(directory, segment), stakeManager::applyStake);
+            }
+            lastSegment = Math.max(lastSegment, segment);
+        }
+
+        logger.info("Recovered {} stakes from snapshot {} and {} from the journal in {} ms", loaded, snapshotSegment,
+                replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // never append to a recovered segment, its tail may be torn
+        journal = new StakeJournal(directory, lastSegment + 1);
+        stakeManager.attachJournal(journal);
+
+        snapshotter.scheduleAtFixedRate(this::snapshot, snapshotIntervalMinutes, snapshotIntervalMinutes,
+                TimeUnit.MINUTES);
+    }
+
+    /**
+     * Write a snapshot of everything journaled so far and drop the files it covers
+     */
+    void snapshot() {
+        long start = System.nanoTime();
+        try (StakeManager.Capture capture = stakeManager.capture()) {
+            StakeSnapshot.write(StakeSnapshot.snapshotPath(directory, capture.segment()), capture.offerIds(),
+                    capture.logs(), capture.counts(), capture.offers());
+
+            for (long segment : segments("snapshot-", ".snap")) {
+                if (segment < capture.segment()) {
+                    Files.deleteIfExists(StakeSnapshot.snapshotPath(directory, segment));
+                }
+            }
+            for (long segment : segments("wal-", ".log")) {
+                if (segment < capture.segment()) {
+                    Files.deleteIfExists(StakeJournal.segmentPath(directory, segment));
+                }
+            }
+
+            long duration = System.nanoTime() - start;
+            Metrics.getInstance().recordSnapshot(duration);
+            logger.info("Snapshot {} of {} bet offers written in {} ms", capture.segment(), capture.offers(),
+                    TimeUnit.NANOSECONDS.toMillis(duration));
+        } catch (IOException | UncheckedIOException e) {
+            // the journal still has everything, the next snapshot will retry
+            logger.error("Failed to write a stake snapshot", e);
+        }
+    }
+
+    /**
+     * Flush the journal, every acknowledged stake is already on disk
+     */
+    public void close() {
+        snapshotter.shutdownNow();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Force the entries of the directory to disk, after a file was created or renamed in it
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private long latest(String prefix, String suffix) throws IOException {
+        List<Long> found = segments(prefix, suffix);
+        return found.isEmpty() ? -1 : found.get(found.size() - 1);
+    }
+
+    /**
+     * Segment numbers of the files named prefix + number + suffix, ascending
+     */
+    private List<Long> segments(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> name.substring(prefix.length(), name.length() - suffix.length()))
+                    .filter(number -> !number.isEmpty() && number.chars().allMatch(Character::isDigit))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .toList();
+        }
+    }
+}
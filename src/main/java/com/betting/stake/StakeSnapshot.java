@@ -0,0 +1,155 @@
+package com.betting.stake;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact snapshot of the stake history of all bet offers, written and read through
+ * memory mapped files.
+ *
+ * Layout (little endian): magic long, offer count int, then per offer: betOfferId int,
+ * stake count int, and the stakes as customerId int, stake int, timestamp long.
+ * The leaderboards are not stored, they are rebuilt from the history on load.
+ *
+ * A snapshot is written to a temp file, forced and then renamed, so a snapshot file is
+ * either complete or absent. The rename is durable when write returns.
+ */
+class StakeSnapshot {
+
+    private static final long MAGIC = 0x31504e534b545353L;// "SSTKSNP1"
+
+    private static final int STAKE_BYTES = 16;
+
+    // files above 2GB can not be mapped at once
+    private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+
+    static Path snapshotPath(Path directory, long segment) {
+        return directory.resolve(String.format("snapshot-%010d.snap", segment));
+    }
+
+    /**
+     * Write the first counts[i] stakes of logs[i] for every offer, the logs are append-only
+     * so these prefixes don't change while writing
+     */
+    static void write(Path file, int[] offerIds, StakeLog[] logs, int[] counts, int offers) throws IOException {
+        long size = 12L + 8L * offers;
+        for (int i = 0; i < offers; i++) {
+            size += (long) STAKE_BYTES * counts[i];
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedCursor out = new MappedCursor(channel, MapMode.READ_WRITE, size);
+            out.putLong(MAGIC);
+            out.putInt(offers);
+            for (int i = 0; i < offers; i++) {
+                out.putInt(offerIds[i]);
+                out.putInt(counts[i]);
+                logs[i].forEach(counts[i], (customerId, stake, timestamp) -> {
+                    out.putInt(customerId);
+                    out.putInt(stake);
+                    out.putLong(timestamp);
+                });
+            }
+            out.force();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // the older files are deleted next, the new name must be on disk first
+        StakePersistence.syncDirectory(file.getParent());
+    }
+
+    /**
+     * @return number of stakes loaded
+     */
+    static long load(Path file, StakeManager stakeManager) throws IOException {
+        long loaded = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedCursor in = new MappedCursor(channel, MapMode.READ_ONLY, channel.size());
+            if (in.getLong() != MAGIC) {
+                throw new IOException("Not a stake snapshot: " + file);
+            }
+            int offers = in.getInt();
+            for (int i = 0; i < offers; i++) {
+                int betOfferId = in.getInt();
+                int count = in.getInt();
+                BetOfferStakes offer = stakeManager.offerFor(betOfferId);
+                for (int j = 0; j < count; j++) {
+                    int customerId = in.getInt();
+                    int stake = in.getInt();
+                    long timestamp = in.getLong();
+                    offer.board.offer(customerId, stake);
+                    offer.log.append(customerId, stake, timestamp);
+                }
+                loaded += count;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Sequential access to a file through a sliding mapped window
+     */
+    private static final class MappedCursor {
+        private final FileChannel channel;
+        private final MapMode mode;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart = 0;
+
+        MappedCursor(FileChannel channel, MapMode mode, long size) throws IOException {
+            this.channel = channel;
+            this.mode = mode;
+            this.size = size;
+            map(0);
+        }
+
+        private void map(long start) throws IOException {
+            if (window != null && mode == MapMode.READ_WRITE) {
+                window.force();
+            }
+            windowStart = start;
+            window = channel.map(mode, start, Math.min(WINDOW_BYTES, size - start));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private MappedByteBuffer ensure(int bytes) {
+            if (window.remaining() < bytes) {
+                try {
+                    map(windowStart + window.position());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return window;
+        }
+
+        void putInt(int value) {
+            ensure(4).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(8).putLong(value);
+        }
+
+        int getInt() {
+            return ensure(4).getInt();
+        }
+
+        long getLong() {
+            return ensure(8).getLong();
+        }
+
+        void force() {
+            window.force();
+        }
+    }
+}
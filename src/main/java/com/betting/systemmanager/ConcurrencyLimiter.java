@@ -0,0 +1,205 @@
+package com.betting.systemmanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.Router;
+
+/**
+ * Adaptive limit on the requests in flight, replacing the all-or-nothing overload flag.
+ *
+ * The limit follows the latency gradient (as in Netflix' Gradient2): every window the
+ * average latency of the window is compared with a slow moving long term average. While
+ * they match the limit grows by about sqrt(limit), when the latency rises the limit
+ * shrinks in proportion, at most halved per window. SystemMonitor shrinks it too when the
+ * cgroup is out of CPU or memory. Changes are smoothed, so the admitted load ramps up and
+ * down instead of flapping between all and nothing.
+ *
+ * Each priority may only fill a share of the limit: as the service saturates, high stakes
+ * reads are shed first, then sessions, stake writes last. Rejected requests get a
+ * Retry-After that grows with the share of rejected traffic.
+ */
+public class ConcurrencyLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    public static final int PRIORITY_READ = 0;
+    public static final int PRIORITY_SESSION = 1;
+    public static final int PRIORITY_WRITE = 2;
+
+    // share of the limit each priority may fill
+    private static final double[] SHARES = { 0.75, 0.9, 1.0 };
+
+    private static final int MIN_LIMIT = 8;
+    private static final int MAX_LIMIT = 4096;
+    private static final int INITIAL_LIMIT = 256;
+
+    private static final long WINDOW_NANOS = 100_000_000L;
+    private static final int MIN_WINDOW_SAMPLES = 20;
+
+    // the long term latency moves by 1/LONG_WINDOW of the difference per window
+    private static final double LONG_WINDOW = 600;
+    private static final double SMOOTHING = 0.2;
+
+    // applied per SystemMonitor sample while the cgroup is overloaded
+    private static final double PRESSURE_DECREASE = 0.8;
+
+    // Singleton pattern
+    private static ConcurrencyLimiter instance = new ConcurrencyLimiter();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // highest inFlight of the window, a limit that is not used is not grown
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private volatile int limit = INITIAL_LIMIT;
+
+    private final LongAdder windowLatency = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAdder windowRejected = new LongAdder();
+    private volatile long windowStart = System.nanoTime();
+
+    private volatile double rejectedShare = 0;
+
+    // the estimate and the long term latency are only updated under this lock
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private double estimatedLimit = INITIAL_LIMIT;
+    private double longLatency = 0;
+
+    ConcurrencyLimiter() {
+    }
+
+    public static ConcurrencyLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reads are shed first, stake writes last
+     */
+    public static int priorityOf(int route) {
+        return switch (route) {
+            case Router.STAKE, Router.BATCH_STAKES -> PRIORITY_WRITE;
+            case Router.SESSION -> PRIORITY_SESSION;
+            default -> PRIORITY_READ;
+        };
+    }
+
+    /**
+     * Subscriptions wait for changes for minutes, they would hold permits and skew the
+     * latency the limit is derived from; HighStakesSubscriptions bounds them instead
+     */
+    public static boolean isLimited(int route) {
+        return route != Router.HIGH_STAKES_STREAM;
+    }
+
+    /**
+     * @return false if the request must be rejected, otherwise release must follow
+     */
+    public boolean tryAcquire(int priority) {
+        int max = Math.max(1, (int) (limit * SHARES[priority]));
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= max) {
+                windowRejected.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        if (current >= peakInFlight.get()) {
+            peakInFlight.accumulateAndGet(current + 1, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * @param latencyNanos time the admitted request took
+     */
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        windowLatency.add(latencyNanos);
+        windowSamples.increment();
+
+        long now = System.nanoTime();
+        if (now - windowStart >= WINDOW_NANOS && updateLock.tryLock()) {
+            try {
+                update(now);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    private void update(long now) {
+        if (now - windowStart < WINDOW_NANOS || windowSamples.sum() < MIN_WINDOW_SAMPLES) {
+            return;// another thread just closed the window, or too few samples to tell
+        }
+        windowStart = now;
+        long samples = windowSamples.sumThenReset();
+        long latency = windowLatency.sumThenReset();
+        long rejected = windowRejected.sumThenReset();
+        int peak = peakInFlight.getAndSet(inFlight.get());
+
+        rejectedShare = (double) rejected / (rejected + samples);
+
+        double shortLatency = Math.max(1.0, (double) latency / samples);
+        if (longLatency == 0) {
+            longLatency = shortLatency;
+        } else {
+            longLatency += (shortLatency - longLatency) / LONG_WINDOW;
+        }
+        // the latency dropped for good (load went away), don't keep an inflated baseline
+        if (longLatency / shortLatency > 2) {
+            longLatency *= 0.95;
+        }
+
+        // an unused limit says nothing about the capacity
+        if (peak < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, longLatency / shortLatency));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        setEstimate(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    /**
+     * Called by SystemMonitor with the cgroup usage, shrinks the limit while overloaded
+     */
+    public void onSystemLoad(boolean overloaded) {
+        if (!overloaded) {
+            return;
+        }
+        updateLock.lock();
+        try {
+            setEstimate(estimatedLimit * PRESSURE_DECREASE);
+            logger.warn("System overloaded, concurrency limit lowered to {}", limit);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void setEstimate(double estimate) {
+        estimatedLimit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, estimate));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Seconds a rejected client should wait: 1 when little is shed, up to 5 when most is
+     */
+    public int retryAfterSeconds() {
+        return 1 + (int) (rejectedShare * 4);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,227 @@
+package com.betting.systemmanager;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.betting.metrics.Metrics;
+import com.betting.session.SessionStore;
+import com.betting.stake.StakeManager;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Heap pressure as the JVM sees it, from the GC notifications.
+ *
+ * cgroup memory.current counts page cache and direct memory as well, and there is no
+ * limit at all when memory.max is "max". What decides whether the heap is running out is
+ * the old generation occupancy left after a collection, so that is tracked here together
+ * with the allocation rate (heap before a GC minus heap after the previous one) and the
+ * time spent in stop-the-world pauses.
+ *
+ * When the old generation stays above HEAP_CLEANUP_THRESHOLD after a collection the
+ * expired sessions and the rendered leaderboards are released right away instead of
+ * waiting for the next scheduled cleanup.
+ */
+public class GcMonitor {
+
+    private static Logger logger = LoggerFactory.getLogger(GcMonitor.class);
+
+    // old generation occupancy after GC that counts as pressure for the concurrency limit
+    static final double HEAP_PRESSURE_THRESHOLD = 0.85;
+
+    // ... and that triggers the cleanups
+    private static final double HEAP_CLEANUP_THRESHOLD = 0.9;
+
+    private static final long CLEANUP_INTERVAL_NANOS = 10_000_000_000L;
+
+    // Singleton pattern
+    private static GcMonitor instance = new GcMonitor();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile double oldGenRatioAfterGc = 0;
+
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private final LongAdder pauseNanos = new LongAdder();
+
+    // only touched by the notification thread
+    private long heapAfterLastGc = 0;
+
+    private final AtomicBoolean cleaning = new AtomicBoolean();
+    private volatile long lastCleanup = System.nanoTime() - CLEANUP_INTERVAL_NANOS;
+
+    // names of the heap pools, the GC reports the non-heap ones too
+    private final List<String> heapPools = new ArrayList<>();
+
+    GcMonitor() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+    }
+
+    public static GcMonitor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Subscribe to the notifications of all collectors, only the first call does anything
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(this::onNotification, null, null);
+            }
+        }
+    }
+
+    private void onNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                .from((CompositeData) notification.getUserData());
+        try {
+            onCollection(info);
+        } catch (Exception e) {
+            logger.error("GC notification error", e);
+        }
+    }
+
+    private void onCollection(GarbageCollectionNotificationInfo info) {
+        GcInfo gcInfo = info.getGcInfo();
+        Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+        Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+
+        // concurrent cycles (G1 Concurrent GC, ZGC Cycles) don't stop the application
+        if (!isConcurrent(info.getGcName())) {
+            long pause = gcInfo.getDuration() * 1_000_000L;
+            pauseNanos.add(pause);
+            Metrics.getInstance().recordGcPause(pause);
+        }
+
+        long heapBefore = heapUsed(before);
+        if (heapBefore > heapAfterLastGc) {
+            allocatedBytes.add(heapBefore - heapAfterLastGc);
+        }
+        heapAfterLastGc = heapUsed(after);
+
+        double ratio = oldGenRatio(after);
+        if (ratio < 0) {
+            return;// no old generation pool took part in this collection
+        }
+        oldGenRatioAfterGc = ratio;
+
+        if (ratio > HEAP_CLEANUP_THRESHOLD) {
+            reclaim(ratio);
+        }
+    }
+
+    private static boolean isConcurrent(String gcName) {
+        return gcName.contains("Concurrent") || gcName.contains("Cycles");
+    }
+
+    private long heapUsed(Map<String, MemoryUsage> usages) {
+        long used = 0;
+        for (String pool : heapPools) {
+            MemoryUsage usage = usages.get(pool);
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return used / max of the old generation, or of the whole heap for single generation
+     *         collectors, -1 if the collection didn't report it
+     */
+    private static double oldGenRatio(Map<String, MemoryUsage> usages) {
+        for (Map.Entry<String, MemoryUsage> entry : usages.entrySet()) {
+            String name = entry.getKey();
+            if (name.contains("Old") || name.contains("Tenured")) {
+                return ratio(entry.getValue());
+            }
+        }
+        // ZGC (non generational), Shenandoah, Epsilon: one pool for the whole heap
+        for (Map.Entry<String, MemoryUsage> entry : usages.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals("ZHeap") || name.equals("Shenandoah") || name.equals("Epsilon Heap")) {
+                return ratio(entry.getValue());
+            }
+        }
+        return -1;
+    }
+
+    private static double ratio(MemoryUsage usage) {
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return (double) usage.getUsed() / max;
+    }
+
+    /**
+     * Release what can be released without losing data, at most once per CLEANUP_INTERVAL_NANOS
+     * and off the notification thread
+     */
+    private void reclaim(double ratio) {
+        if (System.nanoTime() - lastCleanup < CLEANUP_INTERVAL_NANOS || !cleaning.compareAndSet(false, true)) {
+            return;
+        }
+        logger.warn("Old generation at {} after GC, releasing expired sessions and rendered leaderboards", ratio);
+        Thread.ofVirtual().start(() -> {
+            try {
+                SessionStore.getInstance().cleanExpiredSessions();
+                StakeManager.getInstance().dropRenderedHighStakes();
+            } catch (Exception e) {
+                logger.error("Cleanup under heap pressure failed", e);
+            } finally {
+                lastCleanup = System.nanoTime();
+                cleaning.set(false);
+            }
+        });
+    }
+
+    /**
+     * Old generation occupancy after the last collection, 0 before the first one
+     */
+    public double getOldGenRatioAfterGc() {
+        return oldGenRatioAfterGc;
+    }
+
+    public boolean isUnderHeapPressure() {
+        return oldGenRatioAfterGc > HEAP_PRESSURE_THRESHOLD;
+    }
+
+    /**
+     * Bytes allocated on the heap up to the last collection
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Total stop-the-world GC time
+     */
+    public long getPauseNanos() {
+        return pauseNanos.sum();
+    }
+}
@@ -1,26 +1,46 @@
 package com.betting.systemmanager;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.betting.Application;
-
 /**
- * check system load and set systemOverloaded flag
+ * check system load and lower the concurrency limit while the cgroup or the JVM is overloaded
+ *
+ * cgroup memory counts page cache and off-heap memory and has no limit when memory.max is
+ * "max", so the heap is judged by GcMonitor as well: old generation occupancy after GC and
+ * the share of time spent in GC pauses.
  */
 public class SystemMonitor implements Runnable {
-    private static final double CPU_THRESHOLD = 1.0; 
-    private static final double MEM_THRESHOLD = 0.9; 
+    private static final double CPU_THRESHOLD = 1.0;
+    private static final double MEM_THRESHOLD = 0.9;
+
+    // share of the wall time spent in stop-the-world GC pauses
+    private static final double GC_PAUSE_THRESHOLD = 0.1;
 
     private static Logger logger = LoggerFactory.getLogger(SystemMonitor.class);
 
+    // opened once and read again on every sample
+    private final CgroupFile cpuStat = new CgroupFile("/sys/fs/cgroup/cpu.stat");
+    private final CgroupFile cpuMax = new CgroupFile("/sys/fs/cgroup/cpu.max");
+    private final CgroupFile memoryCurrent = new CgroupFile("/sys/fs/cgroup/memory.current");
+    private final CgroupFile memoryMax = new CgroupFile("/sys/fs/cgroup/memory.max");
+
+    private final GcMonitor gcMonitor = GcMonitor.getInstance();
+
     // do't need to syncronize as only one thread is reading and writing
-    private static long lastTimestamp = 0;
-    private static long lastUsage = 0;
+    private long lastTimestamp = 0;
+    private long lastUsage = 0;
+    private long lastSample = System.nanoTime();
+    private long lastPauseNanos = 0;
+    private long lastAllocatedBytes = 0;
 
     @Override
     public void run() {
@@ -29,36 +49,57 @@ public class SystemMonitor implements Runnable {
             double cpuUsageRatio = this.getCpuUseRatioInCgroupv2();
             double memoryUsageRatio = this.getMemoryUseRatioInCgroupV2();
 
+            // GC pauses and allocation since the last sample
+            long now = System.nanoTime();
+            long interval = Math.max(1, now - lastSample);
+            long pauseNanos = gcMonitor.getPauseNanos();
+            long allocatedBytes = gcMonitor.getAllocatedBytes();
+            double gcPauseRatio = (double) (pauseNanos - lastPauseNanos) / interval;
+            long allocationRate = (long) ((allocatedBytes - lastAllocatedBytes) * 1e9 / interval);
+            lastSample = now;
+            lastPauseNanos = pauseNanos;
+            lastAllocatedBytes = allocatedBytes;
+
             // check if system is overloaded
-            boolean overloaded = cpuUsageRatio > CPU_THRESHOLD || memoryUsageRatio > MEM_THRESHOLD;
+            boolean overloaded = cpuUsageRatio > CPU_THRESHOLD || memoryUsageRatio > MEM_THRESHOLD
+                    || gcMonitor.isUnderHeapPressure() || gcPauseRatio > GC_PAUSE_THRESHOLD;
 
-            Application.systemOverloaded.set(overloaded);
+            ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance();
+            limiter.onSystemLoad(overloaded);
 
-            logger.info("System load: cpuUsageRatio={}, memoryUsageRatio={}, overloaded={}", cpuUsageRatio,
-                    memoryUsageRatio, overloaded);
+            logger.info(
+                    "System load: cpuUsageRatio={}, memoryUsageRatio={}, oldGenAfterGc={}, gcPauseRatio={}, allocationRate={}B/s, overloaded={}, limit={}, inFlight={}",
+                    cpuUsageRatio, memoryUsageRatio, gcMonitor.getOldGenRatioAfterGc(), gcPauseRatio, allocationRate,
+                    overloaded, limiter.getLimit(), limiter.getInFlight());
 
         } catch (Exception e) {
             logger.error("System monitor error", e);
-            Application.systemOverloaded.set(false);
         }
     }
 
+    /**
+     * @return -1 outside a cgroup v2 or without a memory limit, GcMonitor covers the heap then
+     */
     private double getMemoryUseRatioInCgroupV2() {
         double memoryUsageRatio = -1;
         try {
 
             // 获取内存使用量
-            long usage = readLongFromFile("/sys/fs/cgroup/memory.current");
+            String current = memoryCurrent.read();
 
             // 获取内存限制
-            String memoryMax = readFile("/sys/fs/cgroup/memory.max");
-            long limit = memoryMax.equals("max") ? -1 : Long.parseLong(memoryMax);
+            String max = memoryMax.read();
+            if (current == null || max == null || max.equals("max")) {
+                return memoryUsageRatio;
+            }
+            long usage = Long.parseLong(current);
+            long limit = Long.parseLong(max);
 
             // 计算内存使用占比
             if (limit > 0) {
                 memoryUsageRatio = ((double) usage / limit);
             }
-        } catch (IOException e) {
+        } catch (IOException | NumberFormatException e) {
             logger.error("Failed to read memory usage: " + e.getMessage());
         }
         return memoryUsageRatio;
@@ -70,10 +111,15 @@ public class SystemMonitor implements Runnable {
 
         try {
             // 获取 CPU 使用时间
-            long usage = readCpuUsage("/sys/fs/cgroup/cpu.stat");
+            String stat = cpuStat.read();
+            String max = cpuMax.read();
+            if (stat == null || max == null) {
+                return cpuUsageRatio;
+            }
+            long usage = parseCpuUsage(stat);
 
             // 获取 CPU 配额和周期
-            String[] cpuMax = readFile("/sys/fs/cgroup/cpu.max").split(" ");
+            String[] cpuMax = max.split(" ");
             long quota = cpuMax[0].equals("max") ? -1 : Long.parseLong(cpuMax[0]);
             long period = Long.parseLong(cpuMax[1]);
 
@@ -91,34 +137,67 @@ public class SystemMonitor implements Runnable {
             // 更新上一次的 CPU 使用时间
             lastUsage = usage;
             lastTimestamp = currentTimestamp;
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             logger.error("Failed to read CPU usage: " + e.getMessage());
         }
         return cpuUsageRatio;
     }
 
-    private static long readLongFromFile(String filePath) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line = reader.readLine();
-            return Long.parseLong(line.trim());
+    private static long parseCpuUsage(String stat) throws IOException {
+        for (String line : stat.split("\n")) {
+            if (line.startsWith("usage_usec")) {
+                return Long.parseLong(line.split(" ")[1]);
+            }
         }
+        throw new IOException("usage_usec not found in cpu.stat");
     }
 
-    private static long readCpuUsage(String filePath) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("usage_usec")) {
-                    return Long.parseLong(line.split(" ")[1]);
+    /**
+     * A cgroup file kept open, read from position 0 on every sample instead of re-opened.
+     * A missing file (not in a cgroup v2) is reported once and not tried again.
+     */
+    private static class CgroupFile {
+
+        private final Path path;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        private FileChannel channel;
+
+        private boolean missing = false;
+
+        CgroupFile(String path) {
+            this.path = Path.of(path);
+        }
+
+        /**
+         * @return the trimmed content, null if the file doesn't exist
+         */
+        String read() throws IOException {
+            if (channel == null) {
+                if (missing) {
+                    return null;
+                }
+                try {
+                    channel = FileChannel.open(path, StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    missing = true;
+                    logger.warn("{} not found, cgroup limits are not monitored", path);
+                    return null;
                 }
             }
-            throw new IOException("usage_usec not found in " + filePath);
-        }
-    }
 
-    private static String readFile(String filePath) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            return reader.readLine();
+            buffer.clear();
+            try {
+                while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                    // pseudo files may come in several reads
+                }
+            } catch (IOException e) {
+                channel.close();
+                channel = null;// open it again on the next sample
+                throw e;
+            }
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim();
         }
     }
 }
@@ -63,6 +63,17 @@ public class AppIntegrationTest {
         }
     }
 
+    private HttpResponse<String> postCustomerStakes(String sessionKey, String items)
+            throws IOException, InterruptedException {
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/stakes?sessionkey=" + sessionKey))
+                    .POST(HttpRequest.BodyPublishers.ofString(items))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
     private HttpResponse<String> getHighStakes4Betoffer(int betofferid) throws IOException, InterruptedException {
         try (HttpClient client = HttpClient.newHttpClient()) {
             HttpRequest request = HttpRequest.newBuilder()
@@ -140,6 +151,27 @@ public class AppIntegrationTest {
         assertThat(response.statusCode()).isEqualTo(200);
     }
 
+    @Test
+    void shouldPostStakesInBatch() throws IOException, InterruptedException {
+
+        int betofferid1 = ThreadLocalRandom.current().nextInt(1000, 1000000);
+        int betofferid2 = betofferid1 + 1;
+        int customerId = ThreadLocalRandom.current().nextInt(1000, 1000000);
+
+        String sessionKey = this.getOneSession4Customer(customerId).body();
+
+        HttpResponse<String> response = this.postCustomerStakes(sessionKey,
+                betofferid1 + "=100," + betofferid2 + "=200,bad," + betofferid1 + "=300");
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo("200,200,400,200");
+
+        assertThat(this.getHighStakes4Betoffer(betofferid1).body()).isEqualTo(customerId + "=300");
+        assertThat(this.getHighStakes4Betoffer(betofferid2).body()).isEqualTo(customerId + "=200");
+
+        assertThat(this.postCustomerStakes("invalid", betofferid1 + "=1").statusCode()).isEqualTo(401);
+    }
+
     @Test
     void shouldGetHighStakes() throws IOException, InterruptedException {
 
@@ -0,0 +1,72 @@
+package com.betting;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class RouterTest {
+
+    /**
+     * Both overloads, the buffer one on a path in the middle of a request line
+     */
+    private static long[] parse(String path) {
+        byte[] line = ("GET " + path + " HTTP/1.1").getBytes(StandardCharsets.US_ASCII);
+        long fromBuffer = Router.parse(ByteBuffer.wrap(line), 4, 4 + path.length());
+        return new long[] { Router.parse(path), fromBuffer };
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "/1234/session, 1, 1234",
+            "/0/session, 1, 0",
+            "/7/stake, 2, 7",
+            "/2147483647/highstakes, 3, 2147483647",
+            "/42/highstakes/stream, 6, 42",
+            "/stakes, 5, 0",
+    })
+    void routesTheKnownPaths(String path, int route, int id) {
+        for (long parsed : parse(path)) {
+            assertThat(Router.route(parsed)).isEqualTo(route);
+            assertThat(Router.id(parsed)).isEqualTo(id);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "/2147483648/stake",
+            "/99999999999999999999/session",
+    })
+    void answersBadIdForIdsOverflowingAnInt(String path) {
+        for (long parsed : parse(path)) {
+            assertThat(Router.route(parsed)).isEqualTo(Router.BAD_ID);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "/",
+            "/1",
+            "/1/",
+            "//session",
+            "/abc/session",
+            "/-1/session",
+            "/1/sessions",
+            "/1/Session",
+            "/1/highstakes/",
+            "/1/stream",
+            "/stake",
+            "/stakes/",
+            "1/session",
+            "/1/session/2",
+            "/2147483648/unknown",
+    })
+    void doesNotRouteOtherPaths(String path) {
+        for (long parsed : parse(path)) {
+            assertThat(Router.route(parsed)).isEqualTo(Router.NOT_FOUND);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.betting.collection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class IntObjConcurrentMapTest {
+
+    @Test
+    void behavesLikeAHashMapThroughGrowthAndRemovals() {
+        for (int segmentBits : new int[] { 0, IntObjConcurrentMap.DEFAULT_SEGMENT_BITS }) {
+            IntObjConcurrentMap<String> map = new IntObjConcurrentMap<>(segmentBits);
+            Map<Integer, String> expected = new HashMap<>();
+            Random random = new Random(segmentBits);
+            for (int i = 0; i < 200_000; i++) {
+                // a small key range, so keys are removed and inserted again many times
+                int key = random.nextInt(5000) - 2500;
+                if (random.nextInt(3) == 0) {
+                    assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+                } else {
+                    String value = "v" + i;
+                    assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+                }
+            }
+
+            assertThat(map.size()).isEqualTo(expected.size());
+            for (int key = -2500; key < 2500; key++) {
+                assertThat(map.get(key)).isEqualTo(expected.get(key));
+            }
+            Map<Integer, String> visited = new HashMap<>();
+            map.forEach((key, value) -> visited.put(key, value));
+            assertThat(visited).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void storesTheFreeSlotMarkerAsAKey() {
+        IntObjConcurrentMap<String> map = new IntObjConcurrentMap<>();
+
+        assertThat(map.get(Integer.MIN_VALUE)).isNull();
+        map.put(Integer.MIN_VALUE, "min");
+        map.put(0, "zero");
+
+        assertThat(map.get(Integer.MIN_VALUE)).isEqualTo("min");
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.remove(Integer.MIN_VALUE)).isEqualTo("min");
+        assertThat(map.get(Integer.MIN_VALUE)).isNull();
+        assertThat(map.get(0)).isEqualTo("zero");
+    }
+
+    @Test
+    void rejectsNullValues() {
+        IntObjConcurrentMap<String> map = new IntObjConcurrentMap<>();
+
+        assertThatThrownBy(() -> map.put(1, null)).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    void removesOnlyTheSameInstance() {
+        IntObjConcurrentMap<String> map = new IntObjConcurrentMap<>();
+        String value = new String("a");
+        map.put(1, value);
+
+        assertThat(map.remove(1, new String("a"))).isFalse();
+        assertThat(map.remove(1, value)).isTrue();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    void computeRemovesWhenTheRemappingReturnsNull() {
+        IntObjConcurrentMap<String> map = new IntObjConcurrentMap<>();
+
+        assertThat(map.compute(1, (key, old) -> old == null ? "first" : old + "!")).isEqualTo("first");
+        assertThat(map.compute(1, (key, old) -> old == null ? "first" : old + "!")).isEqualTo("first!");
+        assertThat(map.compute(1, (key, old) -> null)).isNull();
+        assertThat(map.get(1)).isNull();
+        assertThat(map.size()).isZero();
+    }
+
+    @Test
+    void createsEachValueOnceUnderContention() throws Exception {
+        IntObjConcurrentMap<AtomicInteger> map = new IntObjConcurrentMap<>();
+        AtomicInteger created = new AtomicInteger();
+        int keys = 1000;
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int key = 0; key < keys; key++) {
+                        map.computeIfAbsent(key, k -> {
+                            created.incrementAndGet();
+                            return new AtomicInteger();
+                        }).incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertThat(created.get()).isEqualTo(keys);
+        assertThat(map.size()).isEqualTo(keys);
+        map.forEach((key, counter) -> assertThat(counter.get()).isEqualTo(8));
+    }
+
+    @Test
+    void rejectsSegmentBitsOutOfRange() {
+        assertThatThrownBy(() -> new IntObjConcurrentMap<String>(17)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new IntObjConcurrentMap<String>(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,114 @@
+package com.betting.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class ChangeStreamTest {
+
+    private static final int RING = ChangeStream.RING_SIZE;
+
+    private static void publish(ChangeStream stream, int from, int to) {
+        for (int i = from; i < to; i++) {
+            stream.onStake(i % 100, i, i * 3, 1_000L + i);
+        }
+    }
+
+    @Test
+    void readsInOrderUpToMax() {
+        ChangeStream stream = new ChangeStream();
+        publish(stream, 0, 10);
+        List<Integer> customers = new ArrayList<>();
+
+        assertThat(stream.read(2, 5, (betOfferId, customerId, stake, timestamp) -> {
+            assertThat(betOfferId).isEqualTo(customerId % 100);
+            assertThat(stake).isEqualTo(customerId * 3);
+            assertThat(timestamp).isEqualTo(1_000L + customerId);
+            customers.add(customerId);
+        })).isEqualTo(7);
+        assertThat(customers).containsExactly(2, 3, 4, 5, 6);
+
+        // stops at the position, nothing more to read yet
+        assertThat(stream.read(7, 100, (betOfferId, customerId, stake, timestamp) -> customers.add(customerId)))
+                .isEqualTo(10);
+        assertThat(stream.read(10, 100, (betOfferId, customerId, stake, timestamp) -> customers.add(customerId)))
+                .isEqualTo(10);
+        assertThat(customers).hasSize(8);
+    }
+
+    @Test
+    void readsAWholeRingAfterWrappingAround() {
+        ChangeStream stream = new ChangeStream();
+        int written = RING + 100;
+        publish(stream, 0, written);
+
+        assertThat(stream.position()).isEqualTo(written);
+        assertThat(stream.canRead(99)).isFalse();
+        assertThat(stream.canRead(100)).isTrue();
+        assertThat(stream.canRead(written)).isTrue();
+        assertThat(stream.canRead(written + 1)).isFalse();
+        assertThat(stream.canRead(-1)).isFalse();
+
+        int[] next = { 100 };
+        assertThat(stream.read(100, RING, (betOfferId, customerId, stake, timestamp) -> {
+            assertThat(customerId).isEqualTo(next[0]);
+            assertThat(stake).isEqualTo(next[0] * 3);
+            next[0]++;
+        })).isEqualTo(written);
+        assertThat(next[0]).isEqualTo(written);
+    }
+
+    @Test
+    void givesUpOnceTheWritersLappedTheReader() {
+        ChangeStream stream = new ChangeStream();
+        publish(stream, 0, RING + 1);
+
+        assertThat(stream.read(0, 10, (betOfferId, customerId, stake, timestamp) -> {
+        })).isEqualTo(-1);
+        assertThat(stream.read(1, 10, (betOfferId, customerId, stake, timestamp) -> {
+        })).isEqualTo(11);
+    }
+
+    @Test
+    void aReaderFollowingConcurrentWritersGetsEveryRecordOnce() throws Exception {
+        ChangeStream stream = new ChangeStream();
+        int writers = 4;
+        int perWriter = RING / 8;// the reader can't be lapped
+        int total = writers * perWriter;
+        BitSet seen = new BitSet(total);
+        int[] duplicates = { 0 };
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int first = w * perWriter;
+                futures.add(executor.submit(() -> publish(stream, first, first + perWriter)));
+            }
+
+            long seq = 0;
+            while (seq < total) {
+                seq = stream.read(seq, 4096, (betOfferId, customerId, stake, timestamp) -> {
+                    if (seen.get(customerId)) {
+                        duplicates[0]++;
+                    }
+                    seen.set(customerId);
+                });
+                assertThat(seq).isNotNegative();
+                Thread.onSpinWait();
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertThat(duplicates[0]).isZero();
+        assertThat(seen.cardinality()).isEqualTo(total);
+    }
+}
@@ -0,0 +1,106 @@
+package com.betting.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class SessionSlotsTest {
+
+    @Test
+    void claimsDistinctSlotsAcrossChunks() {
+        SessionSlots slots = new SessionSlots();
+        Set<Integer> claimed = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            claimed.add(slots.claim());
+        }
+
+        assertThat(claimed).hasSize(10_000).allMatch(slot -> slot >= 0 && slot < 10_000);
+        assertThat(slots.highWater()).isEqualTo(10_000);
+        assertThat(slots.get(9_999)).isNull();
+        assertThat(slots.get(20_000)).isNull();
+        assertThat(slots.get(-1)).isNull();
+    }
+
+    @Test
+    void recyclesAReleasedSlotWithTheNextGeneration() {
+        SessionSlots slots = new SessionSlots();
+        int first = slots.claim();
+        int second = slots.claim();
+        int generation = slots.generation(first);
+
+        slots.release(first);
+
+        assertThat(slots.generation(first)).isEqualTo(generation + 1);
+        assertThat(slots.generation(second)).isZero();
+        assertThat(slots.claim()).isEqualTo(first);
+        assertThat(slots.claim()).isEqualTo(2);// free stack empty again
+    }
+
+    @Test
+    void aKeyOfTheReleasedSessionDoesNotMatchTheNextOne() {
+        SessionSlots slots = new SessionSlots();
+        int slot = slots.claim();
+        Session old = new Session("old", stamp(slots.generation(slot)), 1);
+        slots.set(slot, old);
+
+        assertThat(slots.compareAndSet(slot, old, null)).isTrue();
+        slots.release(slot);
+        assertThat(slots.claim()).isEqualTo(slot);
+        Session current = new Session("current", stamp(slots.generation(slot)), 2);
+        slots.set(slot, current);
+
+        // same random part, only the generation tells them apart
+        assertThat(slots.get(slot).getStamp()).isNotEqualTo(old.getStamp());
+        assertThat(slots.compareAndSet(slot, old, null)).isFalse();
+    }
+
+    private static long stamp(int generation) {
+        return (long) generation << 48 | 0xABCDEF;
+    }
+
+    @Test
+    void neverHandsOutAHeldSlotUnderContention() throws Exception {
+        SessionSlots slots = new SessionSlots();
+        int threads = 8;
+        AtomicInteger doubleClaims = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Session owner = new Session("t" + t, t, t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        int slot = slots.claim();
+                        if (!slots.compareAndSet(slot, null, owner)) {
+                            doubleClaims.incrementAndGet();
+                            continue;
+                        }
+                        slots.compareAndSet(slot, owner, null);
+                        slots.release(slot);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertThat(doubleClaims.get()).isZero();
+        // a thread gives its slot back before claiming the next one
+        assertThat(slots.highWater()).isLessThanOrEqualTo(threads);
+        int generations = 0;
+        for (int slot = 0; slot < slots.highWater(); slot++) {
+            generations += slots.generation(slot);
+        }
+        assertThat(generations).isEqualTo(threads * 100_000);
+    }
+}
@@ -0,0 +1,118 @@
+package com.betting.stake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class CompactStakeLogTest {
+
+    private record Stake(int customerId, int stake, long timestamp) {
+    }
+
+    // every varint length, and timestamps going back and forth by any amount
+    private static Stake stake(int i) {
+        int customerId = switch (i % 5) {
+            case 0 -> i;
+            case 1 -> Integer.MAX_VALUE - i;
+            case 2 -> -1 - i;// unsigned, 5 bytes
+            case 3 -> i & 0x7F;
+            default -> i << 14;
+        };
+        int stake = i % 7 == 0 ? Integer.MIN_VALUE + i : i % 3 == 0 ? 0 : i * 31;
+        long timestamp = switch (i % 4) {
+            case 0 -> 1_700_000_000_000L + i;
+            case 1 -> 1_700_000_000_000L - 1000L * i;
+            case 2 -> i % 8 == 2 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            default -> 0;
+        };
+        return new Stake(customerId, stake, timestamp);
+    }
+
+    private static List<Stake> read(StakeLog log, int count) {
+        List<Stake> stakes = new ArrayList<>();
+        log.forEach(count, (customerId, stake, timestamp) -> stakes.add(new Stake(customerId, stake, timestamp)));
+        return stakes;
+    }
+
+    @Test
+    void roundTripsAcrossGrownAndSealedBlocks() {
+        CompactStakeLog log = new CompactStakeLog();
+        int count = 50_000;// about 1 MB, dozens of sealed blocks
+        for (int i = 0; i < count; i++) {
+            Stake stake = stake(i);
+            log.append(stake.customerId(), stake.stake(), stake.timestamp());
+        }
+
+        assertThat(log.size()).isEqualTo(count);
+        List<Stake> stakes = read(log, count);
+        assertThat(stakes).hasSize(count);
+        for (int i = 0; i < count; i++) {
+            assertThat(stakes.get(i)).isEqualTo(stake(i));
+        }
+    }
+
+    @Test
+    void visitsOnlyThePrefix() {
+        CompactStakeLog log = new CompactStakeLog();
+        for (int i = 0; i < 100; i++) {
+            log.append(i, i, i);
+        }
+
+        assertThat(read(log, 0)).isEmpty();
+        assertThat(read(log, 3)).containsExactly(new Stake(0, 0, 0), new Stake(1, 1, 1), new Stake(2, 2, 2));
+    }
+
+    @Test
+    void appendAllEncodesLikeAppend() {
+        CompactStakeLog batched = new CompactStakeLog();
+        CompactStakeLog single = new CompactStakeLog();
+        int[] stakes = new int[3000];
+        for (int i = 0; i < stakes.length; i++) {
+            stakes[i] = stake(i).stake();
+            single.append(42, stakes[i], 1_700_000_000_000L);
+        }
+        batched.appendAll(42, stakes, 0, 1000, 1_700_000_000_000L);
+        batched.appendAll(42, stakes, 1000, stakes.length, 1_700_000_000_000L);
+
+        assertThat(batched.size()).isEqualTo(stakes.length);
+        assertThat(read(batched, stakes.length)).isEqualTo(read(single, stakes.length));
+    }
+
+    @Test
+    void readersSeeCompleteRecordsWhileTheWriterGrowsTheBlocks() throws InterruptedException {
+        CompactStakeLog log = new CompactStakeLog();
+        int count = 200_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = Thread.ofPlatform().start(() -> {
+            while (!done.get() && failure.get() == null) {
+                int size = log.size();
+                int[] index = { 0 };
+                log.forEach(size, (customerId, stake, timestamp) -> {
+                    if (!new Stake(customerId, stake, timestamp).equals(stake(index[0]))) {
+                        failure.compareAndSet(null, "record " + index[0] + " of " + size);
+                    }
+                    index[0]++;
+                });
+                if (index[0] != size) {
+                    failure.compareAndSet(null, index[0] + " records visited of " + size);
+                }
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            Stake stake = stake(i);
+            log.append(stake.customerId(), stake.stake(), stake.timestamp());
+        }
+        done.set(true);
+        reader.join();
+
+        assertThat(failure.get()).isNull();
+        assertThat(log.size()).isEqualTo(count);
+    }
+}
@@ -0,0 +1,102 @@
+package com.betting.stake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class StakeIngestTest {
+
+    // ids no other test uses, the StakeManager is a singleton
+    private static final int FIRST_OFFER = 920_001;
+
+    private final StakeManager stakeManager = StakeManager.getInstance();
+
+    private List<int[]> stakes(int betOfferId) {
+        List<int[]> stakes = new ArrayList<>();
+        stakeManager.forEachStake(betOfferId, (customerId, stake, timestamp) -> stakes.add(new int[] { customerId, stake }));
+        return stakes;
+    }
+
+    @Test
+    void appliesTheStakesOfEachProducerInOrder() throws Exception {
+        StakeIngest ingest = new StakeIngest(4, stakeManager);
+        int producers = 8;
+        int perProducer = 2000;
+        int offers = 3;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int customerId = p;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        ingest.apply(FIRST_OFFER + i % offers, customerId, i, i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        int total = 0;
+        for (int offer = 0; offer < offers; offer++) {
+            int[] last = new int[producers];
+            Arrays.fill(last, -1);
+            for (int[] stake : stakes(FIRST_OFFER + offer)) {
+                assertThat(stake[1]).isGreaterThan(last[stake[0]]);
+                last[stake[0]] = stake[1];
+                total++;
+            }
+        }
+        assertThat(total).isEqualTo(producers * perProducer);
+    }
+
+    @Test
+    void pushesBackOnABatchLargerThanTheRing() {
+        StakeIngest ingest = new StakeIngest(2, stakeManager);
+        int count = 20_000;// more than a ring, the producer waits for the owner to drain
+        int betOfferId = FIRST_OFFER + 10;
+        int[] betOfferIds = new int[count];
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            betOfferIds[i] = betOfferId;
+            values[i] = i + 1;
+        }
+
+        ingest.applyAll(betOfferIds, 7, values, count, 1_000L);
+
+        List<int[]> stakes = stakes(betOfferId);
+        assertThat(stakes).hasSize(count);
+        for (int i = 0; i < count; i++) {
+            assertThat(stakes.get(i)).containsExactly(7, i + 1);
+        }
+        assertThat(stakeManager.getHighStakes(betOfferId)).isEqualTo("7=" + count);
+    }
+
+    @Test
+    void returnsOnceEveryShardHasAppliedTheBatch() {
+        StakeIngest ingest = new StakeIngest(4, stakeManager);
+        int offers = 16;
+        int[] betOfferIds = new int[offers * 2];
+        int[] values = new int[offers * 2];
+        for (int i = 0; i < offers * 2; i++) {
+            betOfferIds[i] = FIRST_OFFER + 100 + i / 2;// grouped by offer
+            values[i] = 10 + i;
+        }
+
+        ingest.applyAll(betOfferIds, 9, values, offers * 2, 1_000L);
+
+        for (int offer = 0; offer < offers; offer++) {
+            assertThat(stakes(FIRST_OFFER + 100 + offer)).hasSize(2);
+            assertThat(stakeManager.getHighStakes(FIRST_OFFER + 100 + offer)).isEqualTo("9=" + (11 + 2 * offer));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.betting.stake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StakePersistenceTest {
+
+    // ids no other test uses, the StakeManager is a singleton
+    private static final int OFFER = 910_001;
+
+    @TempDir
+    Path directory;
+
+    private record Stake(int betOfferId, int customerId, int stake, long timestamp) {
+    }
+
+    private List<Stake> replay(Path file) throws IOException {
+        List<Stake> stakes = new ArrayList<>();
+        StakeJournal.replay(file, (betOfferId, customerId, stake, timestamp) -> stakes
+                .add(new Stake(betOfferId, customerId, stake, timestamp)));
+        return stakes;
+    }
+
+    private StakeJournal journal(int records) throws IOException {
+        StakeJournal journal = new StakeJournal(directory, 1);
+        long seq = 0;
+        for (int i = 0; i < records; i++) {
+            seq = journal.append(i % 3, 100 + i, 10 * i, 1_000L + i);
+        }
+        journal.awaitDurable(seq);
+        return journal;
+    }
+
+    @Test
+    void replaysEveryDurableRecordInOrder() throws IOException {
+        journal(1000).close();
+
+        List<Stake> stakes = replay(StakeJournal.segmentPath(directory, 1));
+
+        assertThat(stakes).hasSize(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(stakes.get(i)).isEqualTo(new Stake(i % 3, 100 + i, 10 * i, 1_000L + i));
+        }
+    }
+
+    @Test
+    void appendAllKeepsTheOrderOfTheBatch() throws IOException {
+        StakeJournal journal = new StakeJournal(directory, 1);
+        journal.awaitDurable(journal.appendAll(7, 42, new int[] { 5, 6, 7, 8 }, 1, 4, 2_000L));
+        journal.close();
+
+        assertThat(replay(StakeJournal.segmentPath(directory, 1))).containsExactly(new Stake(7, 42, 6, 2_000L),
+                new Stake(7, 42, 7, 2_000L), new Stake(7, 42, 8, 2_000L));
+    }
+
+    @Test
+    void stopsBeforeATornTail() throws IOException {
+        journal(10).close();
+        Path segment = StakeJournal.segmentPath(directory, 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - StakeJournal.RECORD_BYTES / 2);
+        }
+
+        List<Stake> stakes = replay(segment);
+
+        assertThat(stakes).hasSize(9);
+        assertThat(stakes.get(8)).isEqualTo(new Stake(8 % 3, 108, 80, 1_008L));
+    }
+
+    @Test
+    void stopsAtACorruptedRecord() throws IOException {
+        journal(10).close();
+        Path segment = StakeJournal.segmentPath(directory, 1);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[4 * StakeJournal.RECORD_BYTES + 9] ^= 1;// a bit of the stake of the fifth record
+        Files.write(segment, bytes);
+
+        assertThat(replay(segment)).hasSize(4);
+    }
+
+    @Test
+    void rotatesToANewSegment() throws IOException {
+        StakeJournal journal = journal(5);
+        assertThat(journal.rotate()).isEqualTo(2);
+        journal.awaitDurable(journal.append(1, 2, 3, 4L));
+        journal.close();
+
+        assertThat(replay(StakeJournal.segmentPath(directory, 1))).hasSize(5);
+        assertThat(replay(StakeJournal.segmentPath(directory, 2))).containsExactly(new Stake(1, 2, 3, 4L));
+    }
+
+    @Test
+    void refusesAppendsOnceClosed() throws IOException {
+        StakeJournal journal = journal(1);
+        journal.close();
+
+        assertThatThrownBy(() -> journal.append(1, 2, 3, 4L)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void recoversFromASnapshotAndTheSegmentsAfterIt() throws IOException {
+        // snapshot-2 covers wal-1, wal-2 has the stakes after it with a torn last record
+        HeapStakeLog log = new HeapStakeLog();
+        log.append(1, 500, 10L);
+        log.append(2, 700, 11L);
+        log.append(1, 900, 12L);
+        Path snapshot = StakeSnapshot.snapshotPath(directory, 2);
+        StakeSnapshot.write(snapshot, new int[] { OFFER }, new StakeLog[] { log }, new int[] { 2 }, 1);
+        assertThat(directory.resolve(snapshot.getFileName() + ".tmp")).doesNotExist();
+
+        StakeJournal journal = new StakeJournal(directory, 2);
+        journal.awaitDurable(journal.append(OFFER, 3, 800, 13L));
+        journal.awaitDurable(journal.append(OFFER, 2, 100, 14L));
+        journal.close();
+        Path segment = StakeJournal.segmentPath(directory, 2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        StakeManager stakeManager = StakeManager.getInstance();
+        assertThat(StakeSnapshot.load(snapshot, stakeManager)).isEqualTo(2);
+        assertThat(StakeJournal.replay(segment, stakeManager::applyStake)).isEqualTo(1);
+
+        List<Stake> recovered = new ArrayList<>();
+        stakeManager.forEachStake(OFFER,
+                (customerId, stake, timestamp) -> recovered.add(new Stake(OFFER, customerId, stake, timestamp)));
+        assertThat(recovered).containsExactly(new Stake(OFFER, 1, 500, 10L), new Stake(OFFER, 2, 700, 11L),
+                new Stake(OFFER, 3, 800, 13L));
+        assertThat(stakeManager.getHighStakes(OFFER)).isEqualTo("3=800,2=700,1=500");
+    }
+
+    @Test
+    void rejectsAFileThatIsNotASnapshot() throws IOException {
+        Path file = directory.resolve("snapshot-0000000001.snap");
+        Files.write(file, new byte[16]);
+
+        assertThatThrownBy(() -> StakeSnapshot.load(file, StakeManager.getInstance())).isInstanceOf(IOException.class);
+    }
+}